@@ -0,0 +1,266 @@
+/*
+ * Java Move.Me bindings.
+ *
+ * Copyright (C) 2013  Roman Klapaukh
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+
+package nz.ac.vuw.ecs.moveme;
+
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.ByteBuffer;
+import java.nio.channels.DatagramChannel;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * A stand in for the Move.Me server on the loopback interface. It accepts one client, waits for its init command and then sends standard state
+ * packets to it at a fixed rate. The packets are written with the offsets from {@link PSMoveServerPacket}, and describe controllers that move in
+ * circles, press a button every few packets and pull the trigger back and forth. Commands other than init are read and ignored, since the packet
+ * rate is set by the harness.
+ *
+ * Packets are built in place in one buffer, so the server itself does not allocate while sending.
+ */
+public class SimulatedMoveServer implements Runnable {
+
+	private static final int Magic = PSMoveServerPacket.StandardState.offsetOf("header.magic");
+	private static final int ServerVersion = PSMoveServerPacket.StandardState.offsetOf("header.serverVersion");
+	private static final int PayloadCode = PSMoveServerPacket.StandardState.offsetOf("header.payloadCode");
+	private static final int PacketIndex = PSMoveServerPacket.StandardState.offsetOf("header.packetIndex");
+	private static final int Status = PSMoveServerPacket.StandardState.offsetOf("status");
+	private static final int StatusStride = PSMoveServerPacket.StandardState.strideOf("status");
+	private static final int StatusConnected = PSMoveServerPacket.Status.offsetOf("connected");
+	private static final int StatusCode = PSMoveServerPacket.Status.offsetOf("code");
+	private static final int State = PSMoveServerPacket.StandardState.offsetOf("state");
+	private static final int StateStride = PSMoveServerPacket.StandardState.strideOf("state");
+	private static final int StatePos = PSMoveServerPacket.State.offsetOf("pos");
+	private static final int StateVel = PSMoveServerPacket.State.offsetOf("vel");
+	private static final int StateQuat = PSMoveServerPacket.State.offsetOf("quat");
+	private static final int StateDigitalButtons = PSMoveServerPacket.State.offsetOf("digitalButtons");
+	private static final int StateAnalogT = PSMoveServerPacket.State.offsetOf("analogT");
+	private static final int StateTimestamp = PSMoveServerPacket.State.offsetOf("timestamp");
+	private static final int ImageStateVisible = PSMoveServerPacket.StandardState.offsetOf("imageState.visible");
+	private static final int ImageStateStride = PSMoveServerPacket.StandardState.strideOf("imageState");
+	private static final int PointerValid = PSMoveServerPacket.StandardState.offsetOf("pointer.valid");
+	private static final int PointerX = PSMoveServerPacket.StandardState.offsetOf("pointer.normalizedX");
+	private static final int PointerY = PSMoveServerPacket.StandardState.offsetOf("pointer.normalizedY");
+	private static final int PointerStride = PSMoveServerPacket.StandardState.strideOf("pointer");
+	private static final int SphereTracking = PSMoveServerPacket.StandardState.offsetOf("sphere.tracking");
+	private static final int SphereStride = PSMoveServerPacket.StandardState.strideOf("sphere");
+
+	// Radius of the circles the controllers move in, in millimetres
+	private static final float Radius = 300;
+	private static final int ButtonPeriod = 16;
+
+	private final ServerSocket serverSocket;
+	private final int rate;
+	private final int controllers;
+	private volatile boolean running;
+	private volatile long sentPackets;
+	private volatile long latePackets;
+	private Socket socket;
+	private DatagramChannel channel;
+
+	/**
+	 * Create a server listening on an ephemeral port of the loopback interface
+	 *
+	 * @param rate
+	 *            Standard state packets to send per second
+	 * @param controllers
+	 *            Number of connected controllers (0 - 4)
+	 * @throws IOException
+	 */
+	public SimulatedMoveServer(int rate, int controllers) throws IOException {
+		if (rate < 1) {
+			throw new IllegalArgumentException("Rate must be at least 1 packet per second");
+		}
+		if (controllers < 0 || controllers > PSMoveClient.PSMoveServerMaxCons) {
+			throw new IllegalArgumentException("Invalid number of controllers " + controllers);
+		}
+		this.serverSocket = new ServerSocket(0, 1, InetAddress.getByName("127.0.0.1"));
+		this.rate = rate;
+		this.controllers = controllers;
+		this.running = true;
+		this.sentPackets = 0;
+		this.latePackets = 0;
+	}
+
+	/**
+	 * @return The TCP port to connect the client to
+	 */
+	public int getPort() {
+		return serverSocket.getLocalPort();
+	}
+
+	/**
+	 * @return The number of packets sent so far
+	 */
+	public long getSentPackets() {
+		return sentPackets;
+	}
+
+	/**
+	 * @return The number of packets that were sent more than one period late, because the sending thread fell behind
+	 */
+	public long getLatePackets() {
+		return latePackets;
+	}
+
+	/**
+	 * Start the server on a new daemon thread
+	 */
+	public void start() {
+		Thread t = new Thread(this, "Simulated Move.Me server");
+		t.setDaemon(true);
+		t.start();
+	}
+
+	/**
+	 * Stop sending and close the connection
+	 */
+	public void close() {
+		running = false;
+		try {
+			serverSocket.close();
+			if (socket != null) {
+				socket.close();
+			}
+			if (channel != null) {
+				channel.close();
+			}
+		} catch (IOException e) {
+			e.printStackTrace();
+		}
+	}
+
+	public void run() {
+		try {
+			socket = serverSocket.accept();
+			DataInputStream in = new DataInputStream(socket.getInputStream());
+			int udpPort = -1;
+			while (udpPort < 0) {
+				int command = in.readInt();
+				int length = in.readInt();
+				if (command == 0 && length >= 4) {
+					udpPort = in.readInt();
+					in.skipBytes(length - 4);
+				} else {
+					in.skipBytes(length);
+				}
+			}
+			startCommandReader(in);
+			channel = DatagramChannel.open();
+			channel.connect(new InetSocketAddress(socket.getInetAddress(), udpPort));
+			send();
+		} catch (IOException e) {
+			if (running) {
+				e.printStackTrace();
+			}
+		}
+	}
+
+	private void startCommandReader(final DataInputStream in) {
+		Thread t = new Thread(new Runnable() {
+			public void run() {
+				try {
+					while (running) {
+						in.readInt();
+						in.skipBytes(in.readInt());
+					}
+				} catch (IOException e) {
+					// The client has gone
+				}
+			}
+		}, "Simulated Move.Me server commands");
+		t.setDaemon(true);
+		t.start();
+	}
+
+	private void send() throws IOException {
+		ByteBuffer packet = ByteBuffer.allocateDirect(PSMoveServerPacket.StandardStateSize);
+		packet.putInt(Magic, PSMoveClient.PSMoveServerPacketMagic);
+		packet.putInt(ServerVersion, 1);
+		packet.putInt(PayloadCode, PSMoveClient.PSMoveServerPacketCodeStandardState);
+		for (int i = 0; i < controllers; i++) {
+			packet.putInt(Status + i * StatusStride + StatusConnected, 1);
+			packet.putInt(Status + i * StatusStride + StatusCode, PSMoveClient.CodeTracking);
+			packet.putInt(ImageStateVisible + i * ImageStateStride, 1);
+			packet.putInt(PointerValid + i * PointerStride, 1);
+			packet.putInt(SphereTracking + i * SphereStride, 1);
+		}
+		for (int i = controllers; i < PSMoveClient.PSMoveServerMaxCons; i++) {
+			packet.putInt(Status + i * StatusStride + StatusCode, PSMoveClient.CodeNotConnected);
+		}
+
+		long period = 1000000000L / rate;
+		long start = System.nanoTime();
+		long next = start;
+		int index = 0;
+		while (running) {
+			long now = System.nanoTime();
+			fill(packet, index, now, (now - start) / 1e9);
+			packet.clear();
+			channel.write(packet);
+			sentPackets++;
+			index++;
+
+			next += period;
+			now = System.nanoTime();
+			if (now - next > period) {
+				// Fell behind, so start a new schedule rather than sending a burst
+				latePackets++;
+				next = now;
+			}
+			while (next - now > 100000) {
+				LockSupport.parkNanos(next - now - 50000);
+				now = System.nanoTime();
+			}
+			while (next - System.nanoTime() > 0) {
+				// Spin for the last few microseconds
+			}
+		}
+	}
+
+	private void fill(ByteBuffer packet, int index, long now, double seconds) {
+		packet.putInt(PacketIndex, index);
+		for (int i = 0; i < controllers; i++) {
+			int state = State + i * StateStride;
+			double angle = seconds * 2 * Math.PI * (0.5 + 0.25 * i);
+			float x = (float) (Radius * Math.cos(angle));
+			float y = (float) (Radius * Math.sin(angle));
+			float speed = (float) (Radius * 2 * Math.PI * (0.5 + 0.25 * i));
+			packet.putFloat(state + StatePos, x);
+			packet.putFloat(state + StatePos + 4, y);
+			packet.putFloat(state + StatePos + 8, -1000);
+			packet.putFloat(state + StatePos + 12, 1);
+			packet.putFloat(state + StateVel, (float) (-speed * Math.sin(angle)));
+			packet.putFloat(state + StateVel + 4, (float) (speed * Math.cos(angle)));
+			packet.putFloat(state + StateQuat, (float) Math.cos(angle / 2));
+			packet.putFloat(state + StateQuat + 12, (float) Math.sin(angle / 2));
+			// Each controller holds a different button for half of every button period
+			int buttons = (index / (ButtonPeriod / 2)) % 2 == 0 ? 1 << (i + 2) : 0;
+			packet.putShort(state + StateDigitalButtons, (short) buttons);
+			packet.putShort(state + StateAnalogT, (short) (index % 512 < 256 ? index % 256 : 255 - index % 256));
+			packet.putLong(state + StateTimestamp, now / 1000);
+			packet.putFloat(PointerX + i * PointerStride, x / Radius);
+			packet.putFloat(PointerY + i * PointerStride, y / Radius);
+		}
+	}
+}
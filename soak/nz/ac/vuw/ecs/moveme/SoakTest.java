@@ -0,0 +1,257 @@
+/*
+ * Java Move.Me bindings.
+ *
+ * Copyright (C) 2013  Roman Klapaukh
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+
+package nz.ac.vuw.ecs.moveme;
+
+import java.io.IOException;
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.concurrent.ThreadFactory;
+
+/**
+ * Drives the whole client, from the socket to the listeners and subscribers, with packets from a {@link SimulatedMoveServer} on the loopback
+ * interface. Every combination of packet rate and number of controllers is run for a while, and a line is printed for each with:
+ * <ul>
+ * <li>the packet rate achieved and the packets lost between server and client</li>
+ * <li>p50, p99 and p99.9 of the time from receiving a packet to the listeners returning, from the {@link LatencyTracer}</li>
+ * <li>p99 and p99.9 of the time from receiving a packet to a subscriber getting its button event</li>
+ * <li>bytes allocated by the receive thread per packet, where the JVM can measure it</li>
+ * <li>collections and time spent in GC, and the heap in use after a full collection at the end of the run</li>
+ * <li>live threads once the client and server have been closed</li>
+ * </ul>
+ * The sweep can be repeated to soak the client for hours; a heap or thread count that keeps growing from one sweep to the next points to a leak.
+ *
+ * <pre>
+ * java nz.ac.vuw.ecs.moveme.SoakTest --rates 60,250,1000 --controllers 1,4 --seconds 30 --repeat 100
+ * </pre>
+ */
+public class SoakTest {
+
+	private final int rate;
+	private final int controllers;
+	private final long warmupMillis;
+	private final long runMillis;
+
+	private final LatencyHistogram subscriberLatency;
+	private volatile Thread receiveThread;
+
+	/**
+	 * @param rate
+	 *            Packets per second
+	 * @param controllers
+	 *            Number of connected controllers (0 - 4)
+	 * @param warmupMillis
+	 *            Time to run before measuring, so the JIT has compiled the receive path
+	 * @param runMillis
+	 *            Time to measure for
+	 */
+	public SoakTest(int rate, int controllers, long warmupMillis, long runMillis) {
+		this.rate = rate;
+		this.controllers = controllers;
+		this.warmupMillis = warmupMillis;
+		this.runMillis = runMillis;
+		this.subscriberLatency = new LatencyHistogram();
+	}
+
+	/**
+	 * Run the test once
+	 *
+	 * @return One line of the report
+	 * @throws IOException
+	 * @throws InterruptedException
+	 */
+	public String run() throws IOException, InterruptedException {
+		SimulatedMoveServer server = new SimulatedMoveServer(rate, controllers);
+		server.start();
+
+		PSMoveClient client = new PSMoveClient();
+		LatencyTracer tracer = new LatencyTracer();
+		client.setLatencyTracer(tracer);
+		client.setThreadFactory(new ThreadFactory() {
+			public Thread newThread(Runnable r) {
+				Thread t = new Thread(r, "Move.Me receive");
+				t.setDaemon(true);
+				receiveThread = t;
+				return t;
+			}
+		});
+		client.registerListener(new UpdateListener() {
+			private int pushes;
+
+			public void positionUpdate(int buttonsPushed, int buttonsHeld, int buttonsReleased, int trigger) {
+				pushes += Integer.bitCount(buttonsPushed);
+			}
+
+			public void positionUpdate(float x, float y, int buttonsPushed, int buttonsHeld, int buttonsReleased, int trigger) {
+				pushes += Integer.bitCount(buttonsPushed);
+			}
+
+			public void noController() {
+			}
+		});
+		client.getButtonPublisher().subscribe(new MoveSubscriber<ButtonEvent>() {
+			private MoveSubscription subscription;
+
+			public void onSubscribe(MoveSubscription subscription) {
+				this.subscription = subscription;
+				subscription.request(1);
+			}
+
+			public void onNext(ButtonEvent item) {
+				subscriberLatency.record(System.nanoTime() - item.getNanoTime());
+				subscription.request(1);
+			}
+
+			public void onError(Throwable throwable) {
+				throwable.printStackTrace();
+			}
+
+			public void onComplete() {
+			}
+		});
+
+		client.connect("127.0.0.1", server.getPort());
+		Thread.sleep(warmupMillis);
+
+		tracer.reset();
+		subscriberLatency.reset();
+		long allocated = allocatedBytes();
+		long gcCount = gcCount();
+		long gcMillis = gcMillis();
+		long sent = server.getSentPackets();
+		long late = server.getLatePackets();
+		long received = client.getReceivedPacketCount();
+		long start = System.nanoTime();
+
+		Thread.sleep(runMillis);
+
+		long elapsed = System.nanoTime() - start;
+		sent = server.getSentPackets() - sent;
+		received = client.getReceivedPacketCount() - received;
+		allocated = allocated < 0 ? -1 : allocatedBytes() - allocated;
+		gcCount = gcCount() - gcCount;
+		gcMillis = gcMillis() - gcMillis;
+		late = server.getLatePackets() - late;
+
+		server.close();
+		client.close();
+		Thread t = receiveThread;
+		if (t != null) {
+			t.join(1000);
+		}
+		System.gc();
+		long heap = ManagementFactory.getMemoryMXBean().getHeapMemoryUsage().getUsed();
+		int threads = ManagementFactory.getThreadMXBean().getThreadCount();
+
+		LatencyHistogram total = tracer.getTotalHistogram();
+		return String.format("%6d %5d %9.0f %8d %6d %8.1f %8.1f %8.1f %8.1f %8.1f %9s %5d %6d %8.1f %7d", rate, controllers, received * 1e9 / elapsed,
+				sent - received, late, total.getPercentile(50) / 1e3, total.getPercentile(99) / 1e3, total.getPercentile(99.9) / 1e3,
+				subscriberLatency.getPercentile(99) / 1e3, subscriberLatency.getPercentile(99.9) / 1e3,
+				allocated < 0 || received == 0 ? "n/a" : String.format("%.1f", (double) allocated / received), gcCount, gcMillis, heap / 1048576.0,
+				threads);
+	}
+
+	/**
+	 * @return Header for the report lines returned by {@link #run()}
+	 */
+	public static String header() {
+		return String.format("%6s %5s %9s %8s %6s %8s %8s %8s %8s %8s %9s %5s %6s %8s %7s", "rate", "cons", "pkt/s", "lost", "late", "p50us", "p99us",
+				"p999us", "sub99us", "sub999us", "B/pkt", "gcs", "gcms", "heapMB", "threads");
+	}
+
+	/**
+	 * Bytes allocated by the receive thread so far, or -1 if the JVM cannot tell
+	 */
+	private long allocatedBytes() {
+		ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+		Thread t = receiveThread;
+		if (t == null || !(threads instanceof com.sun.management.ThreadMXBean)) {
+			return -1;
+		}
+		return ((com.sun.management.ThreadMXBean) threads).getThreadAllocatedBytes(t.getId());
+	}
+
+	private static long gcCount() {
+		long count = 0;
+		for (GarbageCollectorMXBean gc : ManagementFactory.getGarbageCollectorMXBeans()) {
+			count += Math.max(0, gc.getCollectionCount());
+		}
+		return count;
+	}
+
+	private static long gcMillis() {
+		long millis = 0;
+		for (GarbageCollectorMXBean gc : ManagementFactory.getGarbageCollectorMXBeans()) {
+			millis += Math.max(0, gc.getCollectionTime());
+		}
+		return millis;
+	}
+
+	private static int[] parseList(String s) {
+		String[] parts = s.split(",");
+		int[] values = new int[parts.length];
+		for (int i = 0; i < parts.length; i++) {
+			values[i] = Integer.parseInt(parts[i].trim());
+		}
+		return values;
+	}
+
+	public static void main(String args[]) {
+		int[] rates = { 60, 120, 250, 500, 1000 };
+		int[] controllers = { 1, 4 };
+		long seconds = 10;
+		long warmup = 2;
+		int repeat = 1;
+		for (int i = 0; i + 1 < args.length; i += 2) {
+			if (args[i].equals("--rates")) {
+				rates = parseList(args[i + 1]);
+			} else if (args[i].equals("--controllers")) {
+				controllers = parseList(args[i + 1]);
+			} else if (args[i].equals("--seconds")) {
+				seconds = Long.parseLong(args[i + 1]);
+			} else if (args[i].equals("--warmup")) {
+				warmup = Long.parseLong(args[i + 1]);
+			} else if (args[i].equals("--repeat")) {
+				repeat = Integer.parseInt(args[i + 1]);
+			} else {
+				System.err.println("Unknown option " + args[i]);
+				System.err.println("Options: --rates a,b,... --controllers a,b,... --seconds n --warmup n --repeat n");
+				System.exit(1);
+			}
+		}
+
+		System.out.println(header());
+		try {
+			for (int r = 0; r < repeat; r++) {
+				for (int rate : rates) {
+					for (int cons : controllers) {
+						System.out.println(new SoakTest(rate, cons, warmup * 1000, seconds * 1000).run());
+					}
+				}
+			}
+		} catch (IOException e) {
+			e.printStackTrace();
+		} catch (InterruptedException e) {
+			e.printStackTrace();
+		}
+		System.exit(0);
+	}
+}
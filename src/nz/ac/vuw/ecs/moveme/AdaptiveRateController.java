@@ -0,0 +1,252 @@
+/*
+ * Java Move.Me bindings.
+ *
+ * Copyright (C) 2013  Roman Klapaukh
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+
+package nz.ac.vuw.ecs.moveme;
+
+import java.io.IOException;
+
+/**
+ * Adjusts the packet delays of a {@link PSMoveClient} to suit the current load. At every tick it looks at the packets dropped, the time spent
+ * decoding and dispatching each packet and how much the controllers are moving:
+ * <ul>
+ * <li>If packets were dropped, or dispatch takes up most of the time between packets, the delay is doubled, and the doubled delay becomes a floor.
+ * </li>
+ * <li>Otherwise, if a button changed or a controller moved faster than the motion threshold recently, the delay drops straight to the floor.</li>
+ * <li>Otherwise, once the controllers have been at rest for the rest time, the delay is raised one step per tick up to the maximum.</li>
+ * </ul>
+ * The floor is lowered one step per tick once there have been no drops for the rest time, so a consumer that cannot keep up is not flooded again
+ * on the next tick. The camera frame delay follows the same rules within its own bounds. Commands are only sent when a delay actually changes.
+ *
+ * Activity is detected by the client's receive thread from the values it already decodes, so no controller state is built for it.
+ */
+public class AdaptiveRateController implements Runnable {
+
+	private final PSMoveClient client;
+	private volatile int minDelay;
+	private volatile int maxDelay;
+	private volatile int minCameraDelay;
+	private volatile int maxCameraDelay;
+	private volatile long tickMillis;
+	private volatile long restMillis;
+	private volatile float motionThreshold;
+	private volatile float maxLoad;
+
+	private final PeriodicTask task;
+	private int delay;
+	private int cameraDelay;
+	private int floor;
+	private int cameraFloor;
+	private long lastBackoff;
+	private long lastReceived;
+	private long lastDropped;
+	private long lastDispatch;
+
+	/**
+	 * Create a controller with standard packet delays between 2 and 16ms, camera frame delays between 16 and 255ms, a 250ms tick, a 2 second rest
+	 * time and a motion threshold of 200mm/s
+	 *
+	 * @param client
+	 *            The client to control
+	 */
+	public AdaptiveRateController(PSMoveClient client) {
+		this.client = client;
+		this.minDelay = 2;
+		this.maxDelay = 16;
+		this.minCameraDelay = 16;
+		this.maxCameraDelay = 255;
+		this.tickMillis = 250;
+		this.restMillis = 2000;
+		this.motionThreshold = 200;
+		this.maxLoad = 0.8f;
+		this.task = new PeriodicTask(client, this, false);
+	}
+
+	/**
+	 * Set the bounds of the standard state packet delay
+	 *
+	 * @param min
+	 *            Shortest delay in milliseconds, used while the controllers are moving
+	 * @param max
+	 *            Longest delay in milliseconds, used at rest
+	 */
+	public void setDelayBounds(int min, int max) {
+		if (min < 1 || max < min) {
+			throw new IllegalArgumentException("Invalid delay bounds " + min + " - " + max);
+		}
+		this.minDelay = min;
+		this.maxDelay = max;
+	}
+
+	/**
+	 * Set the bounds of the camera frame delay. Use 0 for both to leave the camera frame delay alone.
+	 *
+	 * @param min
+	 *            Shortest delay in milliseconds (at least 16)
+	 * @param max
+	 *            Longest delay in milliseconds (at most 255)
+	 */
+	public void setCameraDelayBounds(int min, int max) {
+		if (!(min == 0 && max == 0) && (min < 16 || max > 255 || max < min)) {
+			throw new IllegalArgumentException("Invalid camera delay bounds " + min + " - " + max);
+		}
+		this.minCameraDelay = min;
+		this.maxCameraDelay = max;
+	}
+
+	/**
+	 * Set how often the load is checked
+	 *
+	 * @param millis
+	 *            Time between checks in milliseconds
+	 */
+	public void setTickMillis(long millis) {
+		this.tickMillis = millis;
+	}
+
+	/**
+	 * Set how long the controllers have to be still before the rate is lowered
+	 *
+	 * @param millis
+	 *            Time in milliseconds
+	 */
+	public void setRestMillis(long millis) {
+		this.restMillis = millis;
+	}
+
+	/**
+	 * Set the speed above which a controller counts as moving
+	 *
+	 * @param millimetresPerSecond
+	 *            Speed threshold
+	 */
+	public void setMotionThreshold(float millimetresPerSecond) {
+		this.motionThreshold = millimetresPerSecond;
+		synchronized (this) {
+			if (task.isRunning()) {
+				client.setActivityMotionThreshold(millimetresPerSecond);
+			}
+		}
+	}
+
+	/**
+	 * Set the fraction of the time between packets that dispatch may take before the rate is lowered
+	 *
+	 * @param load
+	 *            Fraction (0.0 - 1.0)
+	 */
+	public void setMaxLoad(float load) {
+		this.maxLoad = load;
+	}
+
+	/**
+	 * @return The standard state packet delay currently requested
+	 */
+	public synchronized int getDelay() {
+		return delay;
+	}
+
+	/**
+	 * Start adjusting the rate. The client should already be connected. Closing the client shuts down its default scheduler, so after
+	 * reconnecting call this again.
+	 */
+	public synchronized void start() {
+		if (task.isRunning()) {
+			return;
+		}
+		delay = client.getPacketDelay();
+		cameraDelay = client.getCameraFrameDelay();
+		lastReceived = client.getReceivedPacketCount();
+		lastDropped = client.getDroppedPacketCount();
+		lastDispatch = client.getDispatchNanos();
+		floor = minDelay;
+		cameraFloor = minCameraDelay;
+		lastBackoff = 0;
+		client.setActivityMotionThreshold(motionThreshold);
+		client.markActivity();
+		task.start(tickMillis, tickMillis);
+	}
+
+	/**
+	 * Stop adjusting the rate. The last delays requested stay in effect. The controller also stops by itself if a delay command fails.
+	 */
+	public synchronized void stop() {
+		task.stop();
+		client.setActivityMotionThreshold(0);
+	}
+
+	public synchronized void run() {
+		long received = client.getReceivedPacketCount();
+		long dropped = client.getDroppedPacketCount();
+		long dispatch = client.getDispatchNanos();
+		long packets = received - lastReceived;
+		long drops = dropped - lastDropped;
+		double load = 0;
+		if (packets > 0 && delay > 0) {
+			load = (double) (dispatch - lastDispatch) / packets / (delay * 1000000.0);
+		}
+		lastReceived = received;
+		lastDropped = dropped;
+		lastDispatch = dispatch;
+
+		long now = System.nanoTime();
+		long rest = restMillis * 1000000L;
+		int cameraStep = (maxCameraDelay - minCameraDelay) / 8 + 1;
+		int newDelay, newCameraDelay;
+		if (drops > 0 || load > maxLoad) {
+			newDelay = Math.max(delay, minDelay) * 2;
+			newCameraDelay = Math.max(cameraDelay, minCameraDelay) * 2;
+			floor = Math.min(maxDelay, newDelay);
+			cameraFloor = Math.min(maxCameraDelay, newCameraDelay);
+			lastBackoff = now;
+		} else {
+			if (lastBackoff == 0 || now - lastBackoff >= rest) {
+				floor = Math.max(minDelay, floor - 1);
+				cameraFloor = Math.max(minCameraDelay, cameraFloor - cameraStep);
+			}
+			if (now - client.getLastActivityNanos() < rest) {
+				newDelay = floor;
+				newCameraDelay = cameraFloor;
+			} else {
+				newDelay = Math.max(floor, delay + 1);
+				newCameraDelay = Math.max(cameraFloor, cameraDelay + cameraStep);
+			}
+		}
+		newDelay = Math.max(minDelay, Math.min(maxDelay, newDelay));
+		newCameraDelay = Math.max(minCameraDelay, Math.min(maxCameraDelay, newCameraDelay));
+
+		try {
+			if (newDelay != delay) {
+				client.delayChange(newDelay);
+				delay = newDelay;
+			}
+			if (maxCameraDelay != 0 && newCameraDelay != cameraDelay) {
+				client.cameraFrameDelayChange(newCameraDelay);
+				cameraDelay = newCameraDelay;
+			}
+		} catch (IOException e) {
+			e.printStackTrace();
+			stop();
+		} catch (RuntimeException e) {
+			// The client may have been closed under us
+			e.printStackTrace();
+			stop();
+		}
+	}
+}
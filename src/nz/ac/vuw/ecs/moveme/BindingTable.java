@@ -0,0 +1,284 @@
+/*
+ * Java Move.Me bindings.
+ *
+ * Copyright (C) 2013  Roman Klapaukh
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+
+package nz.ac.vuw.ecs.moveme;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+
+/**
+ * {@link ButtonBindings} compiled into lookup tables, together with the state needed to spot long presses, double taps and trigger crossings.
+ *
+ * Press and release chords are looked up in a table indexed first by the buttons down (before the packet for releases) and then by the buttons that
+ * changed, which holds exactly the actions to run. Only rows for masks that some chord fits in are allocated. Long presses, double taps and trigger
+ * thresholds only look at the buttons that have bindings of that kind.
+ *
+ * Only used from the receive thread.
+ */
+final class BindingTable {
+
+	private static final int Buttons = 8;
+	private static final int Masks = 1 << Buttons;
+	private static final ButtonAction[] None = new ButtonAction[0];
+
+	private static class Timed {
+		final long nanos;
+		final ButtonAction action;
+
+		Timed(long nanos, ButtonAction action) {
+			this.nanos = nanos;
+			this.action = action;
+		}
+	}
+
+	private static class ControllerTable {
+		ButtonAction[][][] press;
+		ButtonAction[][][] release;
+
+		int longPressMask;
+		Timed[][] longPress;
+		long[] pressedAt;
+		int[] nextLongPress;
+
+		int doubleTapMask;
+		Timed[][] doubleTap;
+		long[] lastTap;
+
+		int[] thresholds;
+		ButtonAction[][] thresholdActions;
+		int[] firstAbove;
+		int lastTrigger;
+	}
+
+	private final ControllerTable[] controllers;
+
+	BindingTable(ButtonBindings bindings) {
+		controllers = new ControllerTable[PSMoveClient.PSMoveServerMaxCons];
+		for (int c = 0; c < controllers.length; c++) {
+			List<ButtonBindings.Binding> mine = new ArrayList<ButtonBindings.Binding>();
+			for (ButtonBindings.Binding b : bindings.getBindings()) {
+				if (b.controller == c || b.controller == ButtonBindings.ALL_CONTROLLERS) {
+					mine.add(b);
+				}
+			}
+			if (!mine.isEmpty()) {
+				controllers[c] = compile(mine);
+			}
+		}
+	}
+
+	void update(int controller, int buttons, int pushed, int released, int trigger, long now) {
+		ControllerTable t = controllers[controller];
+		if (t == null) {
+			return;
+		}
+		int down = buttons & (Masks - 1);
+		pushed &= Masks - 1;
+		released &= Masks - 1;
+
+		if (pushed != 0) {
+			ButtonAction[][] row = t.press[down];
+			if (row != null) {
+				run(row[pushed], controller, trigger);
+			}
+			int taps = pushed & t.doubleTapMask;
+			while (taps != 0) {
+				int b = Integer.numberOfTrailingZeros(taps);
+				taps &= taps - 1;
+				if (t.lastTap[b] != 0 && now - t.lastTap[b] <= t.doubleTap[b][t.doubleTap[b].length - 1].nanos) {
+					for (Timed d : t.doubleTap[b]) {
+						if (now - t.lastTap[b] <= d.nanos) {
+							run(d.action, controller, trigger);
+						}
+					}
+					t.lastTap[b] = 0;
+				} else {
+					t.lastTap[b] = now;
+				}
+			}
+			int started = pushed & t.longPressMask;
+			while (started != 0) {
+				int b = Integer.numberOfTrailingZeros(started);
+				started &= started - 1;
+				t.pressedAt[b] = now;
+				t.nextLongPress[b] = 0;
+			}
+		}
+		if (released != 0) {
+			int before = (down & ~pushed) | released;
+			ButtonAction[][] row = t.release[before];
+			if (row != null) {
+				run(row[released], controller, trigger);
+			}
+		}
+
+		int held = down & t.longPressMask;
+		while (held != 0) {
+			int b = Integer.numberOfTrailingZeros(held);
+			held &= held - 1;
+			Timed[] timed = t.longPress[b];
+			while (t.nextLongPress[b] < timed.length && now - t.pressedAt[b] >= timed[t.nextLongPress[b]].nanos) {
+				run(timed[t.nextLongPress[b]++].action, controller, trigger);
+			}
+		}
+
+		if (t.thresholds != null && trigger != t.lastTrigger) {
+			int last = clamp(t.lastTrigger);
+			int current = clamp(trigger);
+			for (int i = t.firstAbove[last]; i < t.thresholds.length && t.thresholds[i] <= current; i++) {
+				run(t.thresholdActions[i], controller, trigger);
+			}
+			t.lastTrigger = trigger;
+		}
+	}
+
+	private static ControllerTable compile(List<ButtonBindings.Binding> bindings) {
+		ControllerTable t = new ControllerTable();
+		t.press = chordTable(bindings, ButtonBindings.Press);
+		t.release = chordTable(bindings, ButtonBindings.Release);
+
+		t.longPress = timedTable(bindings, ButtonBindings.LongPress);
+		t.longPressMask = maskOf(t.longPress);
+		t.pressedAt = new long[Buttons];
+		t.nextLongPress = new int[Buttons];
+		for (int b = 0; b < Buttons; b++) {
+			t.nextLongPress[b] = Integer.MAX_VALUE;
+		}
+
+		t.doubleTap = timedTable(bindings, ButtonBindings.DoubleTap);
+		t.doubleTapMask = maskOf(t.doubleTap);
+		t.lastTap = new long[Buttons];
+
+		List<ButtonBindings.Binding> triggers = new ArrayList<ButtonBindings.Binding>();
+		for (ButtonBindings.Binding b : bindings) {
+			if (b.type == ButtonBindings.Trigger) {
+				triggers.add(b);
+			}
+		}
+		if (!triggers.isEmpty()) {
+			Collections.sort(triggers, new Comparator<ButtonBindings.Binding>() {
+				public int compare(ButtonBindings.Binding a, ButtonBindings.Binding b) {
+					return a.mask - b.mask;
+				}
+			});
+			t.thresholds = new int[triggers.size()];
+			t.thresholdActions = new ButtonAction[triggers.size()][];
+			for (int i = 0; i < triggers.size(); i++) {
+				t.thresholds[i] = triggers.get(i).mask;
+				t.thresholdActions[i] = new ButtonAction[] { triggers.get(i).action };
+			}
+			t.firstAbove = new int[Masks];
+			for (int v = 0, i = 0; v < Masks; v++) {
+				while (i < t.thresholds.length && t.thresholds[i] <= v) {
+					i++;
+				}
+				t.firstAbove[v] = i;
+			}
+		}
+		return t;
+	}
+
+	/**
+	 * Build the table of chords of one type. Entry [down][changed] holds the chords that fit within down and contain one of the changed buttons.
+	 */
+	private static ButtonAction[][][] chordTable(List<ButtonBindings.Binding> bindings, int type) {
+		ButtonAction[][][] table = new ButtonAction[Masks][][];
+		for (int down = 1; down < Masks; down++) {
+			List<ButtonBindings.Binding> fits = new ArrayList<ButtonBindings.Binding>();
+			for (ButtonBindings.Binding b : bindings) {
+				if (b.type == type && (b.mask & down) == b.mask) {
+					fits.add(b);
+				}
+			}
+			if (fits.isEmpty()) {
+				continue;
+			}
+			ButtonAction[][] row = new ButtonAction[Masks][];
+			// Visit every non empty subset of down
+			for (int changed = down; changed != 0; changed = (changed - 1) & down) {
+				List<ButtonAction> actions = new ArrayList<ButtonAction>();
+				for (ButtonBindings.Binding b : fits) {
+					if ((b.mask & changed) != 0) {
+						actions.add(b.action);
+					}
+				}
+				row[changed] = actions.isEmpty() ? None : actions.toArray(new ButtonAction[actions.size()]);
+			}
+			table[down] = row;
+		}
+		return table;
+	}
+
+	/**
+	 * Build the table of long presses or double taps of one type, indexed by button and sorted by time
+	 */
+	private static Timed[][] timedTable(List<ButtonBindings.Binding> bindings, int type) {
+		Timed[][] table = new Timed[Buttons][];
+		for (int b = 0; b < Buttons; b++) {
+			List<Timed> timed = new ArrayList<Timed>();
+			for (ButtonBindings.Binding binding : bindings) {
+				if (binding.type == type && binding.mask == 1 << b) {
+					timed.add(new Timed(binding.nanos, binding.action));
+				}
+			}
+			Collections.sort(timed, new Comparator<Timed>() {
+				public int compare(Timed x, Timed y) {
+					return x.nanos < y.nanos ? -1 : (x.nanos == y.nanos ? 0 : 1);
+				}
+			});
+			table[b] = timed.toArray(new Timed[timed.size()]);
+		}
+		return table;
+	}
+
+	private static int maskOf(Timed[][] table) {
+		int mask = 0;
+		for (int b = 0; b < Buttons; b++) {
+			if (table[b].length > 0) {
+				mask |= 1 << b;
+			}
+		}
+		return mask;
+	}
+
+	private static int clamp(int trigger) {
+		return Math.max(0, Math.min(Masks - 1, trigger));
+	}
+
+	private static void run(ButtonAction[] actions, int controller, int trigger) {
+		if (actions == null) {
+			return;
+		}
+		for (ButtonAction a : actions) {
+			run(a, controller, trigger);
+		}
+	}
+
+	private static void run(ButtonAction action, int controller, int trigger) {
+		try {
+			action.perform(controller, trigger);
+		} catch (IOException e) {
+			e.printStackTrace();
+		}
+	}
+}
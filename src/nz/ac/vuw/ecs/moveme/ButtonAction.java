@@ -0,0 +1,38 @@
+/*
+ * Java Move.Me bindings.
+ *
+ * Copyright (C) 2013  Roman Klapaukh
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+
+package nz.ac.vuw.ecs.moveme;
+
+import java.io.IOException;
+
+public interface ButtonAction {
+
+	/**
+	 * Called when a binding from {@link ButtonBindings} matches. This is called on the receive thread, so it should return quickly. Any IOException
+	 * thrown, e.g. by sending a command, is printed and otherwise ignored.
+	 *
+	 * @param controller
+	 *            The controller the binding matched on (0-3)
+	 * @param trigger
+	 *            State of the trigger (0 - 255)
+	 * @throws IOException
+	 */
+	public void perform(int controller, int trigger) throws IOException;
+}
@@ -0,0 +1,183 @@
+/*
+ * Java Move.Me bindings.
+ *
+ * Copyright (C) 2013  Roman Klapaukh
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+
+package nz.ac.vuw.ecs.moveme;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * A set of bindings from button input to actions. Buttons are given with the UpdateListener button constants, and several can be or-ed together to
+ * make a chord. Install the bindings with {@link PSMoveClient#setButtonBindings(ButtonBindings)}, which compiles them into lookup tables indexed by
+ * the button masks, so matching a packet takes the same time however many bindings there are.
+ *
+ * <pre>
+ * ButtonBindings bindings = new ButtonBindings()
+ * 		.onPress(0, UpdateListener.ButtonCircle, setRight)
+ * 		.onPress(0, UpdateListener.ButtonMove | UpdateListener.ButtonTrigger, fire)
+ * 		.onLongPress(ButtonBindings.ALL_CONTROLLERS, UpdateListener.ButtonSelect, 1000, reset)
+ * 		.onDoubleTap(0, UpdateListener.ButtonCross, 300, jump);
+ * client.setButtonBindings(bindings);
+ * </pre>
+ */
+public class ButtonBindings {
+
+	/**
+	 * Use as the controller of a binding to bind it on every controller
+	 */
+	public static final int ALL_CONTROLLERS = -1;
+
+	static final int Press = 0;
+	static final int Release = 1;
+	static final int LongPress = 2;
+	static final int DoubleTap = 3;
+	static final int Trigger = 4;
+
+	static class Binding {
+		final int type;
+		final int controller;
+		final int mask;
+		final long nanos;
+		final ButtonAction action;
+
+		Binding(int type, int controller, int mask, long nanos, ButtonAction action) {
+			this.type = type;
+			this.controller = controller;
+			this.mask = mask;
+			this.nanos = nanos;
+			this.action = action;
+		}
+	}
+
+	private final List<Binding> bindings;
+
+	public ButtonBindings() {
+		bindings = new ArrayList<Binding>();
+	}
+
+	/**
+	 * Bind an action to a button or chord being pressed. The action runs in the packet where the last button of the chord goes down.
+	 *
+	 * @param controller
+	 *            Controller to bind on (0-3), or ALL_CONTROLLERS
+	 * @param buttons
+	 *            The button, or buttons that have to be down together
+	 * @param action
+	 *            The action to run
+	 * @return These bindings
+	 */
+	public ButtonBindings onPress(int controller, int buttons, ButtonAction action) {
+		return add(Press, controller, buttons, 0, action);
+	}
+
+	/**
+	 * Bind an action to a button or chord being released. The action runs in the packet where the first button of the chord comes up.
+	 *
+	 * @param controller
+	 *            Controller to bind on (0-3), or ALL_CONTROLLERS
+	 * @param buttons
+	 *            The button, or buttons that were down together
+	 * @param action
+	 *            The action to run
+	 * @return These bindings
+	 */
+	public ButtonBindings onRelease(int controller, int buttons, ButtonAction action) {
+		return add(Release, controller, buttons, 0, action);
+	}
+
+	/**
+	 * Bind an action to a single button being held down. The action runs once per press, when the button has been down long enough.
+	 *
+	 * @param controller
+	 *            Controller to bind on (0-3), or ALL_CONTROLLERS
+	 * @param button
+	 *            The button
+	 * @param millis
+	 *            How long the button has to be held
+	 * @param action
+	 *            The action to run
+	 * @return These bindings
+	 */
+	public ButtonBindings onLongPress(int controller, int button, long millis, ButtonAction action) {
+		checkSingle(button);
+		return add(LongPress, controller, button, millis * 1000000L, action);
+	}
+
+	/**
+	 * Bind an action to a single button being pressed twice in quick succession
+	 *
+	 * @param controller
+	 *            Controller to bind on (0-3), or ALL_CONTROLLERS
+	 * @param button
+	 *            The button
+	 * @param millis
+	 *            Longest time between the two presses
+	 * @param action
+	 *            The action to run
+	 * @return These bindings
+	 */
+	public ButtonBindings onDoubleTap(int controller, int button, long millis, ButtonAction action) {
+		checkSingle(button);
+		return add(DoubleTap, controller, button, millis * 1000000L, action);
+	}
+
+	/**
+	 * Bind an action to the analog trigger being pulled past a threshold. The action runs each time the trigger goes from below the threshold to at
+	 * or above it.
+	 *
+	 * @param controller
+	 *            Controller to bind on (0-3), or ALL_CONTROLLERS
+	 * @param threshold
+	 *            Trigger value (1 - 255)
+	 * @param action
+	 *            The action to run
+	 * @return These bindings
+	 */
+	public ButtonBindings onTrigger(int controller, int threshold, ButtonAction action) {
+		if (threshold < 1 || threshold > 255) {
+			throw new IllegalArgumentException("Trigger threshold must be between 1 and 255");
+		}
+		return add(Trigger, controller, threshold, 0, action);
+	}
+
+	List<Binding> getBindings() {
+		return bindings;
+	}
+
+	private ButtonBindings add(int type, int controller, int mask, long nanos, ButtonAction action) {
+		if (controller != ALL_CONTROLLERS && (controller < 0 || controller >= PSMoveClient.PSMoveServerMaxCons)) {
+			throw new IllegalArgumentException("No such controller " + controller);
+		}
+		if (type != Trigger && (mask <= 0 || mask > 0xff)) {
+			throw new IllegalArgumentException("Invalid button mask " + mask);
+		}
+		if (action == null) {
+			throw new IllegalArgumentException("Action cannot be null");
+		}
+		bindings.add(new Binding(type, controller, mask, nanos, action));
+		return this;
+	}
+
+	private static void checkSingle(int button) {
+		if (Integer.bitCount(button) != 1) {
+			throw new IllegalArgumentException("Exactly one button must be given");
+		}
+	}
+}
@@ -0,0 +1,99 @@
+/*
+ * Java Move.Me bindings.
+ *
+ * Copyright (C) 2013  Roman Klapaukh
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+
+package nz.ac.vuw.ecs.moveme;
+
+/**
+ * A change in the digital buttons of one controller. Use the UpdateListener button constants to test which buttons are set. When events are
+ * conflated the pushed and released masks accumulate, so no press is lost even if a subscriber falls behind.
+ */
+public class ButtonEvent {
+
+	private final int controller;
+	private final int pushed;
+	private final int held;
+	private final int released;
+	private final int trigger;
+	private final long nanoTime;
+
+	ButtonEvent(int controller, int pushed, int held, int released, int trigger, long nanoTime) {
+		this.controller = controller;
+		this.pushed = pushed;
+		this.held = held;
+		this.released = released;
+		this.trigger = trigger;
+		this.nanoTime = nanoTime;
+	}
+
+	/**
+	 * Combine an undelivered event with a newer one for the same controller
+	 *
+	 * @param older
+	 *            The undelivered event
+	 * @param newer
+	 *            The newer event
+	 * @return An event covering both
+	 */
+	static ButtonEvent merge(ButtonEvent older, ButtonEvent newer) {
+		return new ButtonEvent(newer.controller, older.pushed | newer.pushed, newer.held, older.released | newer.released, newer.trigger, newer.nanoTime);
+	}
+
+	/**
+	 * @return The index of the controller (0-3)
+	 */
+	public int getController() {
+		return controller;
+	}
+
+	/**
+	 * @return Buttons pushed down
+	 */
+	public int getPushed() {
+		return pushed;
+	}
+
+	/**
+	 * @return Buttons still held from before
+	 */
+	public int getHeld() {
+		return held;
+	}
+
+	/**
+	 * @return Buttons released
+	 */
+	public int getReleased() {
+		return released;
+	}
+
+	/**
+	 * @return State of the trigger (0 - 255)
+	 */
+	public int getTrigger() {
+		return trigger;
+	}
+
+	/**
+	 * @return The System.nanoTime at which the packet was received
+	 */
+	public long getNanoTime() {
+		return nanoTime;
+	}
+}
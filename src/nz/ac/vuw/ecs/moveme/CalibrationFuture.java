@@ -0,0 +1,189 @@
+/*
+ * Java Move.Me bindings.
+ *
+ * Copyright (C) 2013  Roman Klapaukh
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+
+package nz.ac.vuw.ecs.moveme;
+
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Future;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * The pending result of calibrating a controller. It completes when the status in the standard state packets shows that the calibration the server
+ * started has finished, when they show the controller is not connected, or when the timeout given to the client passes first. A calibration that
+ * starts and finishes between two packets is noticed by its outcome flags changing. Listeners are called on the thread that completes the future
+ * (usually the receive thread), so they should return quickly.
+ */
+public class CalibrationFuture implements Future<CalibrationResult> {
+
+	private static final Object CANCELLED = new Object();
+	private static final long OutcomeFlags = PSMoveClient.FlagCalibrationOccured | PSMoveClient.FlagCalibrationSuceeded
+			| PSMoveClient.FlagFailCantFindSphere | PSMoveClient.FlagFailMotionDetected;
+
+	private final int controller;
+	private final CountDownLatch done;
+	private final AtomicReference<Object> result;
+	private final CopyOnWriteArrayList<CalibrationListener> listeners;
+	private volatile boolean started;
+	private volatile ScheduledFuture<?> timeout;
+	// Outcome flags of the first packet seen, only touched by the receive thread
+	private boolean seen;
+	private long firstOutcome;
+
+	CalibrationFuture(int controller) {
+		this.controller = controller;
+		this.done = new CountDownLatch(1);
+		this.result = new AtomicReference<Object>();
+		this.listeners = new CopyOnWriteArrayList<CalibrationListener>();
+		this.started = false;
+		this.timeout = null;
+		this.seen = false;
+		this.firstOutcome = 0;
+	}
+
+	/**
+	 * @return The controller being calibrated (0-3)
+	 */
+	public int getController() {
+		return controller;
+	}
+
+	/**
+	 * @return True once the server has reported that calibration is in progress
+	 */
+	public boolean isStarted() {
+		return started;
+	}
+
+	/**
+	 * Add a listener to be told about progress. If the calibration has already finished the listener is called straight away.
+	 *
+	 * @param l
+	 *            The listener to add
+	 */
+	public void addListener(CalibrationListener l) {
+		listeners.add(l);
+		if (started) {
+			l.calibrationStarted(controller);
+		}
+		if (isDone() && listeners.remove(l)) {
+			l.calibrationFinished(controller, resultOrNull());
+		}
+	}
+
+	public boolean cancel(boolean mayInterruptIfRunning) {
+		return complete(CANCELLED);
+	}
+
+	public boolean isCancelled() {
+		return result.get() == CANCELLED;
+	}
+
+	public boolean isDone() {
+		return result.get() != null;
+	}
+
+	public CalibrationResult get() throws InterruptedException {
+		done.await();
+		return checkedResult();
+	}
+
+	public CalibrationResult get(long timeout, TimeUnit unit) throws InterruptedException, TimeoutException {
+		if (!done.await(timeout, unit)) {
+			throw new TimeoutException("Controller " + controller + " has not finished calibrating");
+		}
+		return checkedResult();
+	}
+
+	void setTimeout(ScheduledFuture<?> timeout) {
+		this.timeout = timeout;
+		if (isDone()) {
+			timeout.cancel(false);
+		}
+	}
+
+	/**
+	 * Feed the status of the controller from one packet
+	 *
+	 * @param code
+	 *            The status code
+	 * @param flags
+	 *            The status flags
+	 * @return True if the calibration is now finished
+	 */
+	boolean update(int code, long flags) {
+		if (code == PSMoveClient.CodeNotConnected) {
+			complete(CalibrationResult.FAILED);
+			return true;
+		}
+		if (!seen) {
+			seen = true;
+			firstOutcome = flags & OutcomeFlags;
+		}
+		if (code == PSMoveClient.CodeCalibrating) {
+			if (!started) {
+				started = true;
+				for (CalibrationListener l : listeners) {
+					l.calibrationStarted(controller);
+				}
+			}
+			return false;
+		}
+		if ((flags & PSMoveClient.FlagCalibrationOccured) != 0 && (started || (flags & OutcomeFlags) != firstOutcome)) {
+			complete(CalibrationResult.of(flags));
+			return true;
+		}
+		return isDone();
+	}
+
+	boolean complete(Object outcome) {
+		if (!result.compareAndSet(null, outcome)) {
+			return false;
+		}
+		done.countDown();
+		ScheduledFuture<?> t = timeout;
+		if (t != null) {
+			t.cancel(false);
+		}
+		CalibrationResult r = resultOrNull();
+		for (CalibrationListener l : listeners) {
+			if (listeners.remove(l)) {
+				l.calibrationFinished(controller, r);
+			}
+		}
+		return true;
+	}
+
+	private CalibrationResult resultOrNull() {
+		Object r = result.get();
+		return r == CANCELLED ? null : (CalibrationResult) r;
+	}
+
+	private CalibrationResult checkedResult() {
+		if (isCancelled()) {
+			throw new CancellationException("Calibration of controller " + controller + " was cancelled");
+		}
+		return (CalibrationResult) result.get();
+	}
+}
@@ -0,0 +1,42 @@
+/*
+ * Java Move.Me bindings.
+ *
+ * Copyright (C) 2013  Roman Klapaukh
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+
+package nz.ac.vuw.ecs.moveme;
+
+public interface CalibrationListener {
+
+	/**
+	 * Called when the server reports that it has started calibrating the controller
+	 *
+	 * @param controller
+	 *            The controller being calibrated (0-3)
+	 */
+	public void calibrationStarted(int controller);
+
+	/**
+	 * Called once when the calibration has finished, failed, timed out or been cancelled
+	 *
+	 * @param controller
+	 *            The controller that was calibrated (0-3)
+	 * @param result
+	 *            The outcome, or null if the calibration was cancelled
+	 */
+	public void calibrationFinished(int controller, CalibrationResult result);
+}
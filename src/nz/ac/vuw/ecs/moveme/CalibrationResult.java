@@ -0,0 +1,70 @@
+/*
+ * Java Move.Me bindings.
+ *
+ * Copyright (C) 2013  Roman Klapaukh
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+
+package nz.ac.vuw.ecs.moveme;
+
+/**
+ * The outcome of calibrating a controller
+ */
+public enum CalibrationResult {
+
+	/**
+	 * Calibration succeeded and the controller can be tracked
+	 */
+	SUCCEEDED,
+
+	/**
+	 * The camera could not find the sphere
+	 */
+	CANT_FIND_SPHERE,
+
+	/**
+	 * The controller moved while it was being calibrated
+	 */
+	MOTION_DETECTED,
+
+	/**
+	 * Calibration failed for a reason the server did not give
+	 */
+	FAILED,
+
+	/**
+	 * The server did not report an outcome in time
+	 */
+	TIMED_OUT;
+
+	/**
+	 * Work out the outcome of a finished calibration from the status flags
+	 *
+	 * @param flags
+	 *            The status flags
+	 * @return The outcome
+	 */
+	static CalibrationResult of(long flags) {
+		if ((flags & PSMoveClient.FlagCalibrationSuceeded) != 0) {
+			return SUCCEEDED;
+		} else if ((flags & PSMoveClient.FlagFailCantFindSphere) != 0) {
+			return CANT_FIND_SPHERE;
+		} else if ((flags & PSMoveClient.FlagFailMotionDetected) != 0) {
+			return MOTION_DETECTED;
+		}
+		return FAILED;
+	}
+}
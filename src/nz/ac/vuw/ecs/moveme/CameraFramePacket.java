@@ -0,0 +1,66 @@
+/*
+ * Java Move.Me bindings.
+ *
+ * Copyright (C) 2013  Roman Klapaukh
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+
+package nz.ac.vuw.ecs.moveme;
+
+/**
+ * A camera frame packet (either a JPEG slice or the frame state) as sent by the server once camera frames have been resumed. The payload is
+ * everything after the packet header, left undecoded.
+ */
+public class CameraFramePacket {
+
+	private final int payloadCode;
+	private final int packetIndex;
+	private final byte[] payload;
+
+	CameraFramePacket(int payloadCode, int packetIndex, byte[] payload) {
+		this.payloadCode = payloadCode;
+		this.packetIndex = packetIndex;
+		this.payload = payload;
+	}
+
+	/**
+	 * @return True if this is a slice of the camera image
+	 */
+	public boolean isSlice() {
+		return payloadCode == PSMoveClient.PSMoveServerPacketCodeCameraFrameSlice;
+	}
+
+	/**
+	 * @return The payload code of the packet
+	 */
+	public int getPayloadCode() {
+		return payloadCode;
+	}
+
+	/**
+	 * @return The index of the packet
+	 */
+	public int getPacketIndex() {
+		return packetIndex;
+	}
+
+	/**
+	 * @return A copy of the packet payload
+	 */
+	public byte[] getPayload() {
+		return payload.clone();
+	}
+}
@@ -0,0 +1,188 @@
+/*
+ * Java Move.Me bindings.
+ *
+ * Copyright (C) 2013  Roman Klapaukh
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+
+package nz.ac.vuw.ecs.moveme;
+
+import java.util.Arrays;
+
+/**
+ * Keyframed colors for a {@link LightAnimator}, either RGB colors for {@link PSMoveClient#forceRGB(int, float, float, float)} or hues for
+ * {@link PSMoveClient#setTrackingColor(int, int, int, int)}. Colors are interpolated linearly between keyframes, and hues go the short way around
+ * the color wheel. The animator takes a copy, so changing an animation does not affect one that is already playing.
+ *
+ * <pre>
+ * ColorAnimation pulse = ColorAnimation.rgb(true).keyframe(0, 0, 0, 1).keyframe(500, 1, 0, 1).keyframe(1000, 0, 0, 1);
+ * </pre>
+ */
+public class ColorAnimation {
+
+	private final boolean hue;
+	private final boolean loop;
+	private long[] times;
+	private float[][] values;
+
+	private ColorAnimation(boolean hue, boolean loop, long[] times, float[][] values) {
+		this.hue = hue;
+		this.loop = loop;
+		this.times = times;
+		this.values = values;
+	}
+
+	/**
+	 * Create an animation of RGB colors
+	 *
+	 * @param loop
+	 *            True to start again from the first keyframe after the last one, false to stay on the last color
+	 * @return An animation with no keyframes
+	 */
+	public static ColorAnimation rgb(boolean loop) {
+		return new ColorAnimation(false, loop, new long[0], new float[0][]);
+	}
+
+	/**
+	 * Create an animation of tracking hues
+	 *
+	 * @param loop
+	 *            True to start again from the first keyframe after the last one, false to stay on the last hue
+	 * @return An animation with no keyframes
+	 */
+	public static ColorAnimation hue(boolean loop) {
+		return new ColorAnimation(true, loop, new long[0], new float[0][]);
+	}
+
+	/**
+	 * Add an RGB keyframe. Keyframes must be added in time order.
+	 *
+	 * @param atMillis
+	 *            Time from the start of the animation
+	 * @param r
+	 *            Red component (0.0 - 1.0)
+	 * @param g
+	 *            Green component (0.0 - 1.0)
+	 * @param b
+	 *            Blue component (0.0 - 1.0)
+	 * @return This animation
+	 */
+	public ColorAnimation keyframe(long atMillis, float r, float g, float b) {
+		if (hue) {
+			throw new IllegalStateException("Hue animations take hue keyframes");
+		}
+		return add(atMillis, new float[] { r, g, b });
+	}
+
+	/**
+	 * Add a hue keyframe. Keyframes must be added in time order.
+	 *
+	 * @param atMillis
+	 *            Time from the start of the animation
+	 * @param hue
+	 *            Hue (0 - 359)
+	 * @return This animation
+	 */
+	public ColorAnimation keyframe(long atMillis, int hue) {
+		if (!this.hue) {
+			throw new IllegalStateException("RGB animations take RGB keyframes");
+		}
+		if (hue < 0 || hue >= 360) {
+			throw new IllegalArgumentException("Hue must be between 0 and 359");
+		}
+		return add(atMillis, new float[] { hue });
+	}
+
+	/**
+	 * @return True if this animates tracking hues, false if it animates RGB colors
+	 */
+	public boolean isHue() {
+		return hue;
+	}
+
+	/**
+	 * @return True if the animation repeats
+	 */
+	public boolean isLooping() {
+		return loop;
+	}
+
+	/**
+	 * @return Time of the last keyframe in milliseconds
+	 */
+	public long getDuration() {
+		return times.length == 0 ? 0 : times[times.length - 1];
+	}
+
+	boolean isEmpty() {
+		return times.length == 0;
+	}
+
+	ColorAnimation copy() {
+		return new ColorAnimation(hue, loop, times.clone(), values.clone());
+	}
+
+	/**
+	 * Get the color at a point in the animation
+	 *
+	 * @param elapsedMillis
+	 *            Time since the animation started
+	 * @param out
+	 *            Array to put the color in, 3 components for RGB or 1 for a hue
+	 */
+	void sample(long elapsedMillis, float[] out) {
+		long duration = getDuration();
+		if (loop && duration > 0) {
+			elapsedMillis %= duration;
+		}
+		int next = 0;
+		while (next < times.length && times[next] <= elapsedMillis) {
+			next++;
+		}
+		if (next == 0 || next == times.length) {
+			float[] value = values[next == 0 ? 0 : times.length - 1];
+			System.arraycopy(value, 0, out, 0, Math.min(out.length, value.length));
+			return;
+		}
+		float t = (float) (elapsedMillis - times[next - 1]) / (times[next] - times[next - 1]);
+		float[] from = values[next - 1];
+		float[] to = values[next];
+		if (hue) {
+			float delta = to[0] - from[0];
+			if (delta > 180) {
+				delta -= 360;
+			} else if (delta < -180) {
+				delta += 360;
+			}
+			out[0] = ((from[0] + delta * t) % 360 + 360) % 360;
+		} else {
+			for (int i = 0; i < out.length; i++) {
+				out[i] = from[i] + (to[i] - from[i]) * t;
+			}
+		}
+	}
+
+	private ColorAnimation add(long atMillis, float[] value) {
+		if (atMillis < 0 || atMillis < getDuration()) {
+			throw new IllegalArgumentException("Keyframes must be added in time order");
+		}
+		times = Arrays.copyOf(times, times.length + 1);
+		values = Arrays.copyOf(values, values.length + 1);
+		times[times.length - 1] = atMillis;
+		values[values.length - 1] = value;
+		return this;
+	}
+}
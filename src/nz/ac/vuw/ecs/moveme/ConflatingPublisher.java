@@ -0,0 +1,301 @@
+/*
+ * Java Move.Me bindings.
+ *
+ * Copyright (C) 2013  Roman Klapaukh
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+
+package nz.ac.vuw.ecs.moveme;
+
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * A publisher that never buffers more than one item per slot for each subscriber. A slot is usually a controller index. When a subscriber has not
+ * asked for more items, a newly submitted item replaces (or is merged with) the one still waiting in its slot, so a slow subscriber sees the latest
+ * state rather than making the receive thread queue up old ones. Items are delivered on the given executor, never on the thread that submits them.
+ *
+ * @param <T>
+ *            The type of item published
+ */
+public class ConflatingPublisher<T> implements MovePublisher<T> {
+
+	/**
+	 * Combines an item that has not been delivered yet with a newer one for the same slot
+	 *
+	 * @param <T>
+	 *            The type of item being combined
+	 */
+	public interface Conflater<T> {
+
+		/**
+		 * Combine two items
+		 *
+		 * @param older
+		 *            The item waiting to be delivered
+		 * @param newer
+		 *            The item just submitted
+		 * @return The item to deliver in place of both
+		 */
+		public T conflate(T older, T newer);
+	}
+
+	private final int slots;
+	private final Conflater<T> conflater;
+	private final Executor executor;
+	private final CopyOnWriteArrayList<Subscription> subscriptions;
+	private volatile boolean closed;
+
+	/**
+	 * Create a publisher where newer items simply replace older ones
+	 *
+	 * @param slots
+	 *            Number of independent slots
+	 * @param executor
+	 *            Executor to deliver items on
+	 */
+	public ConflatingPublisher(int slots, Executor executor) {
+		this(slots, null, executor);
+	}
+
+	/**
+	 * Create a publisher
+	 *
+	 * @param slots
+	 *            Number of independent slots
+	 * @param conflater
+	 *            How to combine undelivered items, or null to keep only the newest
+	 * @param executor
+	 *            Executor to deliver items on
+	 */
+	public ConflatingPublisher(int slots, Conflater<T> conflater, Executor executor) {
+		if (slots < 1) {
+			throw new IllegalArgumentException("A publisher needs at least one slot");
+		}
+		this.slots = slots;
+		this.conflater = conflater;
+		this.executor = executor;
+		this.subscriptions = new CopyOnWriteArrayList<Subscription>();
+		this.closed = false;
+	}
+
+	public void subscribe(MoveSubscriber<? super T> subscriber) {
+		if (subscriber == null) {
+			throw new NullPointerException("Subscriber cannot be null");
+		}
+		Subscription s = new Subscription(subscriber);
+		if (!closed) {
+			subscriptions.add(s);
+		}
+		if (closed) {
+			// close() may have gone through the subscribers before this one was added
+			s.done = true;
+			subscriptions.remove(s);
+		}
+		s.schedule();
+	}
+
+	/**
+	 * Check whether anyone is listening. Callers can use this to avoid building items nobody will receive.
+	 *
+	 * @return True if there is at least one subscriber
+	 */
+	public boolean hasSubscribers() {
+		return !subscriptions.isEmpty();
+	}
+
+	/**
+	 * Get the number of current subscribers
+	 *
+	 * @return Number of subscribers
+	 */
+	public int getSubscriberCount() {
+		return subscriptions.size();
+	}
+
+	/**
+	 * Offer an item to all subscribers. This never blocks.
+	 *
+	 * @param slot
+	 *            Slot the item belongs to
+	 * @param item
+	 *            The item
+	 */
+	public void submit(int slot, T item) {
+		if (item == null) {
+			throw new NullPointerException("Item cannot be null");
+		}
+		for (Subscription s : subscriptions) {
+			s.offer(slot, item);
+		}
+	}
+
+	/**
+	 * Complete all subscribers once any items waiting for them have been delivered. Later subscribers are completed straight away.
+	 */
+	public void close() {
+		closed = true;
+		for (Subscription s : subscriptions) {
+			s.done = true;
+			s.schedule();
+			// Only remove the ones completed here, a subscriber added meanwhile completes itself
+			subscriptions.remove(s);
+		}
+	}
+
+	/**
+	 * Accept subscribers again after {@link #close()}
+	 */
+	void open() {
+		closed = false;
+	}
+
+	private class Subscription implements MoveSubscription, Runnable {
+
+		private final MoveSubscriber<? super T> subscriber;
+		private final AtomicReferenceArray<T> latest;
+		private final AtomicLong demand;
+		private final AtomicInteger wip;
+		private volatile boolean cancelled;
+		private volatile boolean done;
+		private volatile Throwable error;
+		private boolean subscribed;
+		private int nextSlot;
+
+		private Subscription(MoveSubscriber<? super T> subscriber) {
+			this.subscriber = subscriber;
+			this.latest = new AtomicReferenceArray<T>(slots);
+			this.demand = new AtomicLong();
+			this.wip = new AtomicInteger();
+			this.cancelled = false;
+			this.done = false;
+			this.error = null;
+			this.subscribed = false;
+			this.nextSlot = 0;
+		}
+
+		public void request(long n) {
+			if (n <= 0) {
+				error = new IllegalArgumentException("Demand must be positive, was " + n);
+				done = true;
+			} else {
+				long current, next;
+				do {
+					current = demand.get();
+					next = current + n;
+					if (next < 0) {
+						next = Long.MAX_VALUE;
+					}
+				} while (!demand.compareAndSet(current, next));
+			}
+			schedule();
+		}
+
+		public void cancel() {
+			cancelled = true;
+			subscriptions.remove(this);
+		}
+
+		private void offer(int slot, T item) {
+			if (conflater == null) {
+				latest.set(slot, item);
+			} else {
+				T older, next;
+				do {
+					older = latest.get(slot);
+					next = older == null ? item : conflater.conflate(older, item);
+				} while (!latest.compareAndSet(slot, older, next));
+			}
+			if (demand.get() > 0) {
+				schedule();
+			}
+		}
+
+		private void schedule() {
+			if (wip.getAndIncrement() == 0) {
+				executor.execute(this);
+			}
+		}
+
+		public void run() {
+			int missed = 1;
+			while (true) {
+				if (!cancelled) {
+					drain();
+				}
+				missed = wip.addAndGet(-missed);
+				if (missed == 0) {
+					return;
+				}
+			}
+		}
+
+		private void drain() {
+			try {
+				if (!subscribed) {
+					subscribed = true;
+					subscriber.onSubscribe(this);
+				}
+				while (!cancelled && demand.get() > 0) {
+					T item = poll();
+					if (item == null) {
+						break;
+					}
+					if (demand.get() != Long.MAX_VALUE) {
+						demand.decrementAndGet();
+					}
+					subscriber.onNext(item);
+				}
+				if (!cancelled && done && (error != null || isEmpty())) {
+					cancel();
+					if (error != null) {
+						subscriber.onError(error);
+					} else {
+						subscriber.onComplete();
+					}
+				}
+			} catch (RuntimeException e) {
+				// A subscriber that throws is broken, so stop talking to it
+				cancel();
+				e.printStackTrace();
+			}
+		}
+
+		private T poll() {
+			for (int i = 0; i < slots; i++) {
+				int slot = (nextSlot + i) % slots;
+				T item = latest.getAndSet(slot, null);
+				if (item != null) {
+					nextSlot = (slot + 1) % slots;
+					return item;
+				}
+			}
+			return null;
+		}
+
+		private boolean isEmpty() {
+			for (int i = 0; i < slots; i++) {
+				if (latest.get(i) != null) {
+					return false;
+				}
+			}
+			return true;
+		}
+	}
+}
@@ -0,0 +1,208 @@
+/*
+ * Java Move.Me bindings.
+ *
+ * Copyright (C) 2013  Roman Klapaukh
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+
+package nz.ac.vuw.ecs.moveme;
+
+/**
+ * A snapshot of one motion controller taken from a single standard state packet. Positions are in millimetres relative to the camera and the
+ * orientation is a quaternion (x, y, z, w).
+ */
+public class ControllerState {
+
+	private final int controller;
+	private final int packetIndex;
+	private final boolean connected;
+	private final int statusCode;
+	private final long statusFlags;
+	private final float[] position;
+	private final float[] velocity;
+	private final float[] orientation;
+	private final int buttons;
+	private final int trigger;
+	private final long timestamp;
+	private final boolean sphereVisible;
+	private final boolean pointerValid;
+	private final float pointerX;
+	private final float pointerY;
+	private final boolean positionPointerValid;
+	private final float positionPointerX;
+	private final float positionPointerY;
+
+	ControllerState(int controller, int packetIndex, boolean connected, int statusCode, long statusFlags, float[] position, float[] velocity,
+			float[] orientation, int buttons, int trigger, long timestamp, boolean sphereVisible, boolean pointerValid, float pointerX, float pointerY,
+			boolean positionPointerValid, float positionPointerX, float positionPointerY) {
+		this.controller = controller;
+		this.packetIndex = packetIndex;
+		this.connected = connected;
+		this.statusCode = statusCode;
+		this.statusFlags = statusFlags;
+		this.position = position;
+		this.velocity = velocity;
+		this.orientation = orientation;
+		this.buttons = buttons;
+		this.trigger = trigger;
+		this.timestamp = timestamp;
+		this.sphereVisible = sphereVisible;
+		this.pointerValid = pointerValid;
+		this.pointerX = pointerX;
+		this.pointerY = pointerY;
+		this.positionPointerValid = positionPointerValid;
+		this.positionPointerX = positionPointerX;
+		this.positionPointerY = positionPointerY;
+	}
+
+	/**
+	 * @return The index of the controller (0-3)
+	 */
+	public int getController() {
+		return controller;
+	}
+
+	/**
+	 * @return The index of the packet this state came from
+	 */
+	public int getPacketIndex() {
+		return packetIndex;
+	}
+
+	/**
+	 * @return Whether the controller is connected to the PlayStation
+	 */
+	public boolean isConnected() {
+		return connected;
+	}
+
+	/**
+	 * @return The status code reported by the server, one of the PSMoveClient.Code constants
+	 */
+	public int getStatusCode() {
+		return statusCode;
+	}
+
+	/**
+	 * @return The status flags reported by the server, a combination of the PSMoveClient.Flag constants
+	 */
+	public long getStatusFlags() {
+		return statusFlags;
+	}
+
+	/**
+	 * @return A copy of the position (x, y, z, w)
+	 */
+	public float[] getPosition() {
+		return position.clone();
+	}
+
+	/**
+	 * @return A copy of the velocity (x, y, z, w)
+	 */
+	public float[] getVelocity() {
+		return velocity.clone();
+	}
+
+	/**
+	 * @return A copy of the orientation quaternion (x, y, z, w)
+	 */
+	public float[] getOrientation() {
+		return orientation.clone();
+	}
+
+	float[] position() {
+		return position;
+	}
+
+	float[] velocity() {
+		return velocity;
+	}
+
+	float[] orientation() {
+		return orientation;
+	}
+
+	/**
+	 * @return The buttons currently down. Use the UpdateListener button constants to test them
+	 */
+	public int getButtons() {
+		return buttons;
+	}
+
+	/**
+	 * @return State of the trigger (0 - 255)
+	 */
+	public int getTrigger() {
+		return trigger;
+	}
+
+	/**
+	 * @return The server timestamp of the controller data
+	 */
+	public long getTimestamp() {
+		return timestamp;
+	}
+
+	/**
+	 * @return Whether the camera could see the sphere
+	 */
+	public boolean isSphereVisible() {
+		return sphereVisible;
+	}
+
+	/**
+	 * @return Whether the laser pointer position is valid
+	 */
+	public boolean isPointerValid() {
+		return pointerValid;
+	}
+
+	/**
+	 * @return Normalised laser pointer x position [-1,1]
+	 */
+	public float getPointerX() {
+		return pointerX;
+	}
+
+	/**
+	 * @return Normalised laser pointer y position [-1,1]
+	 */
+	public float getPointerY() {
+		return pointerY;
+	}
+
+	/**
+	 * @return Whether the position pointer is valid
+	 */
+	public boolean isPositionPointerValid() {
+		return positionPointerValid;
+	}
+
+	/**
+	 * @return Normalised position pointer x position [-1,1]
+	 */
+	public float getPositionPointerX() {
+		return positionPointerX;
+	}
+
+	/**
+	 * @return Normalised position pointer y position [-1,1]
+	 */
+	public float getPositionPointerY() {
+		return positionPointerY;
+	}
+}
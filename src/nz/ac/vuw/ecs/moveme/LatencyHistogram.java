@@ -0,0 +1,193 @@
+/*
+ * Java Move.Me bindings.
+ *
+ * Copyright (C) 2013  Roman Klapaukh
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+
+package nz.ac.vuw.ecs.moveme;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * A fixed size histogram of durations in nanoseconds. Values are put into buckets that are a power of two wide, each split into 16 linear sub
+ * buckets, so reported percentiles are within about 6% of the real value. Recording never allocates and is safe to do from one thread while
+ * other threads read the results.
+ */
+public class LatencyHistogram {
+
+	private static final int SUB_BUCKET_BITS = 4;
+	private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+	private static final int BUCKETS = (64 - SUB_BUCKET_BITS) * SUB_BUCKETS;
+
+	private final AtomicLongArray counts;
+	private final AtomicLong count;
+	private final AtomicLong total;
+	private volatile long min;
+	private volatile long max;
+
+	public LatencyHistogram() {
+		counts = new AtomicLongArray(BUCKETS);
+		count = new AtomicLong();
+		total = new AtomicLong();
+		min = Long.MAX_VALUE;
+		max = 0;
+	}
+
+	/**
+	 * Record a single duration. Negative values are recorded as 0.
+	 *
+	 * @param nanos
+	 *            Duration in nanoseconds
+	 */
+	public void record(long nanos) {
+		if (nanos < 0) {
+			nanos = 0;
+		}
+		counts.incrementAndGet(bucketOf(nanos));
+		count.incrementAndGet();
+		total.addAndGet(nanos);
+		if (nanos < min) {
+			min = nanos;
+		}
+		if (nanos > max) {
+			max = nanos;
+		}
+	}
+
+	/**
+	 * The number of recorded values
+	 *
+	 * @return Number of values recorded since creation or the last reset
+	 */
+	public long getCount() {
+		return count.get();
+	}
+
+	/**
+	 * The smallest recorded value
+	 *
+	 * @return Smallest value in nanoseconds, or 0 if nothing has been recorded
+	 */
+	public long getMin() {
+		return count.get() == 0 ? 0 : min;
+	}
+
+	/**
+	 * The largest recorded value
+	 *
+	 * @return Largest value in nanoseconds
+	 */
+	public long getMax() {
+		return max;
+	}
+
+	/**
+	 * The mean of all recorded values
+	 *
+	 * @return Mean in nanoseconds, or 0 if nothing has been recorded
+	 */
+	public double getMean() {
+		long n = count.get();
+		return n == 0 ? 0 : (double) total.get() / n;
+	}
+
+	/**
+	 * Get the value at a given percentile. The value returned is the upper bound of the bucket the percentile falls in.
+	 *
+	 * @param percentile
+	 *            Percentile to look up (0 - 100)
+	 * @return Value in nanoseconds, or 0 if nothing has been recorded
+	 */
+	public long getPercentile(double percentile) {
+		long n = count.get();
+		if (n == 0) {
+			return 0;
+		}
+		long target = (long) Math.ceil(n * Math.min(100, Math.max(0, percentile)) / 100.0);
+		if (target == 0) {
+			target = 1;
+		}
+		long seen = 0;
+		for (int i = 0; i < BUCKETS; i++) {
+			seen += counts.get(i);
+			if (seen >= target) {
+				return Math.min(upperBoundOf(i), max);
+			}
+		}
+		return max;
+	}
+
+	/**
+	 * Clear all recorded values
+	 */
+	public void reset() {
+		for (int i = 0; i < BUCKETS; i++) {
+			counts.set(i, 0);
+		}
+		count.set(0);
+		total.set(0);
+		min = Long.MAX_VALUE;
+		max = 0;
+	}
+
+	/**
+	 * Add all the values recorded in another histogram to this one
+	 *
+	 * @param other
+	 *            Histogram to add
+	 */
+	public void add(LatencyHistogram other) {
+		for (int i = 0; i < BUCKETS; i++) {
+			long c = other.counts.get(i);
+			if (c != 0) {
+				counts.addAndGet(i, c);
+			}
+		}
+		count.addAndGet(other.count.get());
+		total.addAndGet(other.total.get());
+		if (other.getCount() != 0) {
+			min = Math.min(min, other.min);
+			max = Math.max(max, other.max);
+		}
+	}
+
+	@Override
+	public String toString() {
+		return String.format("count=%d mean=%.1fus p50=%.1fus p90=%.1fus p99=%.1fus p99.9=%.1fus max=%.1fus", getCount(), getMean() / 1000.0,
+				getPercentile(50) / 1000.0, getPercentile(90) / 1000.0, getPercentile(99) / 1000.0, getPercentile(99.9) / 1000.0, getMax() / 1000.0);
+	}
+
+	private static int bucketOf(long value) {
+		if (value < SUB_BUCKETS) {
+			return (int) value;
+		}
+		int magnitude = 63 - Long.numberOfLeadingZeros(value);
+		int sub = (int) (value >>> (magnitude - SUB_BUCKET_BITS)) & (SUB_BUCKETS - 1);
+		return (magnitude - SUB_BUCKET_BITS + 1) * SUB_BUCKETS + sub;
+	}
+
+	private static long upperBoundOf(int bucket) {
+		if (bucket < SUB_BUCKETS) {
+			return bucket;
+		}
+		int magnitude = bucket / SUB_BUCKETS + SUB_BUCKET_BITS - 1;
+		long sub = bucket % SUB_BUCKETS;
+		long width = 1L << (magnitude - SUB_BUCKET_BITS);
+		return (1L << magnitude) + (sub + 1) * width - 1;
+	}
+}
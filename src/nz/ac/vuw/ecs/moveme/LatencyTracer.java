@@ -0,0 +1,164 @@
+/*
+ * Java Move.Me bindings.
+ *
+ * Copyright (C) 2013  Roman Klapaukh
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+
+package nz.ac.vuw.ecs.moveme;
+
+/**
+ * Records how long each standard state packet spends in each stage of the client, using System.nanoTime stamps taken when the datagram is
+ * received, when the packet has been decoded, when its events have been handed to the publishers and when the listeners have returned. Each
+ * stage has its own {@link LatencyHistogram}.
+ *
+ * The server timestamps in the packet are also compared with the local receive time. The smallest difference seen is taken as the fixed offset
+ * between the two clocks, so the transit histogram shows how much later than the best case each packet arrived. This assumes the server timestamps
+ * are in microseconds.
+ *
+ * Install it with {@link PSMoveClient#setLatencyTracer(LatencyTracer)}.
+ */
+public class LatencyTracer {
+
+	/**
+	 * Receives the raw stamps of every traced packet, e.g. to commit a JFR event on JDKs that have them. Called on the receive thread, so it must
+	 * be fast.
+	 */
+	public interface Sink {
+
+		/**
+		 * Called once per traced packet. All times are System.nanoTime values.
+		 *
+		 * @param packetIndex
+		 *            Index of the packet
+		 * @param received
+		 *            When the datagram was received
+		 * @param decoded
+		 *            When decoding finished
+		 * @param enqueued
+		 *            When the events were handed to the publishers
+		 * @param returned
+		 *            When the listeners returned
+		 * @param serverTimestamp
+		 *            Newest server timestamp in the packet, or 0 if no controller is connected
+		 */
+		public void packetTraced(int packetIndex, long received, long decoded, long enqueued, long returned, long serverTimestamp);
+	}
+
+	private final LatencyHistogram decode;
+	private final LatencyHistogram enqueue;
+	private final LatencyHistogram listeners;
+	private final LatencyHistogram total;
+	private final LatencyHistogram transit;
+	private long minOffset;
+	private volatile Sink sink;
+
+	public LatencyTracer() {
+		decode = new LatencyHistogram();
+		enqueue = new LatencyHistogram();
+		listeners = new LatencyHistogram();
+		total = new LatencyHistogram();
+		transit = new LatencyHistogram();
+		minOffset = Long.MAX_VALUE;
+		sink = null;
+	}
+
+	/**
+	 * Set a sink to receive the raw stamps of every packet
+	 *
+	 * @param sink
+	 *            The sink, or null for none
+	 */
+	public void setSink(Sink sink) {
+		this.sink = sink;
+	}
+
+	/**
+	 * @return Time from receiving a datagram to having decoded it
+	 */
+	public LatencyHistogram getDecodeHistogram() {
+		return decode;
+	}
+
+	/**
+	 * @return Time from having decoded a packet to having handed its events to the publishers
+	 */
+	public LatencyHistogram getEnqueueHistogram() {
+		return enqueue;
+	}
+
+	/**
+	 * @return Time spent in the update and lost listeners
+	 */
+	public LatencyHistogram getListenerHistogram() {
+		return listeners;
+	}
+
+	/**
+	 * @return Time from receiving a datagram to the listeners returning
+	 */
+	public LatencyHistogram getTotalHistogram() {
+		return total;
+	}
+
+	/**
+	 * @return How much later than the fastest packet seen each packet arrived, relative to the server timestamps
+	 */
+	public LatencyHistogram getTransitHistogram() {
+		return transit;
+	}
+
+	/**
+	 * Clear all histograms and the clock offset
+	 */
+	public synchronized void reset() {
+		decode.reset();
+		enqueue.reset();
+		listeners.reset();
+		total.reset();
+		transit.reset();
+		minOffset = Long.MAX_VALUE;
+	}
+
+	void record(int packetIndex, long received, long decoded, long enqueued, long returned, long serverTimestamp) {
+		decode.record(decoded - received);
+		enqueue.record(enqueued - decoded);
+		listeners.record(returned - enqueued);
+		total.record(returned - received);
+		if (serverTimestamp != 0) {
+			long offset = received / 1000 - serverTimestamp;
+			if (offset < minOffset) {
+				minOffset = offset;
+			}
+			transit.record((offset - minOffset) * 1000);
+		}
+		Sink s = sink;
+		if (s != null) {
+			s.packetTraced(packetIndex, received, decoded, enqueued, returned, serverTimestamp);
+		}
+	}
+
+	@Override
+	public String toString() {
+		StringBuilder sb = new StringBuilder();
+		sb.append("decode:    ").append(decode).append('\n');
+		sb.append("enqueue:   ").append(enqueue).append('\n');
+		sb.append("listeners: ").append(listeners).append('\n');
+		sb.append("total:     ").append(total).append('\n');
+		sb.append("transit:   ").append(transit);
+		return sb.toString();
+	}
+}
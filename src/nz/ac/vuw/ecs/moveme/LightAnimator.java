@@ -0,0 +1,359 @@
+/*
+ * Java Move.Me bindings.
+ *
+ * Copyright (C) 2013  Roman Klapaukh
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+
+package nz.ac.vuw.ecs.moveme;
+
+import java.io.IOException;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * Plays {@link ColorAnimation}s on the sphere of each controller of a {@link PSMoveClient}. Every animation is sampled by one task on the client's
+ * scheduler, which only runs while something is animating. RGB colors are sent per controller with forceRGB, and the hues of all controllers are
+ * sent together with setTrackingColor.
+ *
+ * A command is only sent when a color has changed, and no more than the maximum command rate are sent, taking turns between the controllers. If
+ * another command is being written when a frame is due, the frame is skipped rather than queued, and the next frame sends the newest color instead.
+ * Only contention for the connection is detected this way: a command still blocks while the TCP send buffer is full. If a command fails, every
+ * animation is stopped.
+ */
+public class LightAnimator implements Runnable {
+
+	private static final int HueChannel = PSMoveClient.PSMoveServerMaxCons;
+
+	private static class Playing {
+		final ColorAnimation animation;
+		final long start;
+
+		Playing(ColorAnimation animation, long start) {
+			this.animation = animation;
+			this.start = start;
+		}
+	}
+
+	private final PSMoveClient client;
+	private final AtomicReferenceArray<Playing> rgb;
+	private final AtomicReferenceArray<Playing> hues;
+	private final AtomicIntegerArray baseHues;
+	private volatile boolean huesUsed;
+	private volatile long frameMillis;
+	private volatile int maxCommandRate;
+	private volatile long skippedFrames;
+
+	private final float[] sample;
+	private final int[][] wantedRGB;
+	private final int[][] sentRGB;
+	private final int[] wantedHues;
+	private final int[] sentHues;
+	private long nextSend;
+	private int nextChannel;
+	private final PeriodicTask task;
+
+	/**
+	 * Create an animator with 20ms frames that sends at most 50 commands a second
+	 *
+	 * @param client
+	 *            The client to send color commands through
+	 */
+	public LightAnimator(PSMoveClient client) {
+		this.client = client;
+		this.rgb = new AtomicReferenceArray<Playing>(PSMoveClient.PSMoveServerMaxCons);
+		this.hues = new AtomicReferenceArray<Playing>(PSMoveClient.PSMoveServerMaxCons);
+		this.baseHues = new AtomicIntegerArray(PSMoveClient.PSMoveServerMaxCons);
+		this.huesUsed = false;
+		this.frameMillis = 20;
+		this.maxCommandRate = 50;
+		this.skippedFrames = 0;
+		this.sample = new float[3];
+		this.wantedRGB = new int[PSMoveClient.PSMoveServerMaxCons][3];
+		this.sentRGB = new int[PSMoveClient.PSMoveServerMaxCons][3];
+		this.wantedHues = new int[PSMoveClient.PSMoveServerMaxCons];
+		this.sentHues = new int[PSMoveClient.PSMoveServerMaxCons];
+		for (int i = 0; i < PSMoveClient.PSMoveServerMaxCons; i++) {
+			baseHues.set(i, PSMoveClient.PICK_FOR_ME);
+			wantedHues[i] = PSMoveClient.PICK_FOR_ME;
+			sentHues[i] = PSMoveClient.PICK_FOR_ME;
+			for (int j = 0; j < 3; j++) {
+				sentRGB[i][j] = -1;
+				wantedRGB[i][j] = -1;
+			}
+		}
+		this.task = new PeriodicTask(client, this, true);
+	}
+
+	/**
+	 * Set the time between frames. Takes effect the next time animation starts.
+	 *
+	 * @param millis
+	 *            Time between frames in milliseconds
+	 */
+	public void setFrameMillis(long millis) {
+		if (millis < 1) {
+			throw new IllegalArgumentException("Frame time must be at least 1ms");
+		}
+		this.frameMillis = millis;
+	}
+
+	/**
+	 * Set the most color commands that will be sent each second, across all controllers
+	 *
+	 * @param commandsPerSecond
+	 *            Maximum command rate
+	 */
+	public void setMaxCommandRate(int commandsPerSecond) {
+		if (commandsPerSecond < 1) {
+			throw new IllegalArgumentException("Command rate must be at least 1 per second");
+		}
+		this.maxCommandRate = commandsPerSecond;
+	}
+
+	/**
+	 * @return The number of color changes that were held back by the command rate or another command being written. Each one was sent later
+	 *         with a newer color, or dropped if the color came back to what was last sent.
+	 */
+	public long getSkippedFrames() {
+		return skippedFrames;
+	}
+
+	/**
+	 * Start an animation on a controller, replacing any animation of the same kind (RGB or hue) already playing on it
+	 *
+	 * @param controller
+	 *            Controller to animate (0 - 3)
+	 * @param animation
+	 *            The animation to play
+	 */
+	public void animate(int controller, ColorAnimation animation) {
+		checkController(controller);
+		if (animation == null || animation.isEmpty()) {
+			throw new IllegalArgumentException("Animation must have at least one keyframe");
+		}
+		Playing p = new Playing(animation.copy(), System.nanoTime());
+		if (animation.isHue()) {
+			huesUsed = true;
+			hues.set(controller, p);
+		} else {
+			rgb.set(controller, p);
+		}
+		schedule();
+	}
+
+	/**
+	 * Set the tracking hue used for a controller while no hue animation is playing on it
+	 *
+	 * @param controller
+	 *            Controller to set the hue for (0 - 3)
+	 * @param hue
+	 *            Hue (0 - 359), PSMoveClient.PICK_FOR_ME or PSMoveClient.DONT_TRACK
+	 */
+	public void setHue(int controller, int hue) {
+		checkController(controller);
+		baseHues.set(controller, hue);
+		huesUsed = true;
+		schedule();
+	}
+
+	/**
+	 * Stop all animations on a controller. The sphere keeps the last RGB color sent, and the tracking hue goes back to the one set with
+	 * {@link #setHue(int, int)}.
+	 *
+	 * @param controller
+	 *            Controller to stop (0 - 3)
+	 */
+	public void stop(int controller) {
+		checkController(controller);
+		rgb.set(controller, null);
+		hues.set(controller, null);
+		schedule();
+	}
+
+	/**
+	 * @param controller
+	 *            Controller to check (0 - 3)
+	 * @return True if an animation is playing on the controller
+	 */
+	public boolean isAnimating(int controller) {
+		checkController(controller);
+		return rgb.get(controller) != null || hues.get(controller) != null;
+	}
+
+	/**
+	 * Stop all animations
+	 */
+	public synchronized void close() {
+		for (int i = 0; i < PSMoveClient.PSMoveServerMaxCons; i++) {
+			rgb.set(i, null);
+			hues.set(i, null);
+		}
+		task.stop();
+	}
+
+	public synchronized void run() {
+		long now = System.nanoTime();
+		boolean active = false;
+		for (int i = 0; i < PSMoveClient.PSMoveServerMaxCons; i++) {
+			Playing p = rgb.get(i);
+			if (p != null) {
+				try {
+					active |= sample(rgb, i, p, now);
+					for (int j = 0; j < 3; j++) {
+						wantedRGB[i][j] = Math.round(Math.max(0, Math.min(1, sample[j])) * 255);
+					}
+				} catch (RuntimeException e) {
+					// A failing animation must not stop the animations on the other controllers
+					e.printStackTrace();
+					rgb.compareAndSet(i, p, null);
+				}
+			}
+			p = hues.get(i);
+			wantedHues[i] = baseHues.get(i);
+			if (p != null) {
+				try {
+					boolean going = sample(hues, i, p, now);
+					wantedHues[i] = Math.round(sample[0]) % 360;
+					if (!going) {
+						// Stay on the last hue once the animation is over
+						baseHues.set(i, wantedHues[i]);
+					}
+					active |= going;
+				} catch (RuntimeException e) {
+					e.printStackTrace();
+					hues.compareAndSet(i, p, null);
+				}
+			}
+		}
+
+		long interval = 1000000000L / maxCommandRate;
+		// Time not spent sending while idle only carries over for one frame, so there are no bursts
+		nextSend = Math.max(nextSend, now - frameMillis * 1000000L);
+		int first = nextChannel;
+		for (int k = 0; k <= HueChannel; k++) {
+			int channel = (first + k) % (HueChannel + 1);
+			if (!isPending(channel)) {
+				continue;
+			}
+			if (now < nextSend) {
+				skippedFrames++;
+				continue;
+			}
+			try {
+				if (!send(channel)) {
+					skippedFrames++;
+					continue;
+				}
+			} catch (IOException e) {
+				e.printStackTrace();
+				abandon();
+				active = false;
+				break;
+			} catch (RuntimeException e) {
+				// The client may have been closed under us
+				e.printStackTrace();
+				abandon();
+				active = false;
+				break;
+			}
+			nextSend += interval;
+			nextChannel = channel + 1;
+		}
+
+		for (int channel = 0; channel <= HueChannel && !active; channel++) {
+			active = isPending(channel);
+		}
+		if (!active) {
+			task.stop();
+		}
+	}
+
+	/**
+	 * Sample an animation into the sample array, and remove it once it has finished
+	 *
+	 * @return True if the animation is still going
+	 */
+	private boolean sample(AtomicReferenceArray<Playing> slots, int controller, Playing p, long now) {
+		long elapsed = (now - p.start) / 1000000L;
+		p.animation.sample(elapsed, sample);
+		if (!p.animation.isLooping() && elapsed >= p.animation.getDuration()) {
+			// A newer animation may have replaced this one since it was read
+			slots.compareAndSet(controller, p, null);
+			return false;
+		}
+		return true;
+	}
+
+	/**
+	 * Stop every animation and forget the colors waiting to be sent after a command has failed, so a closed client or a broken connection is
+	 * reported once rather than every frame
+	 */
+	private void abandon() {
+		for (int i = 0; i < PSMoveClient.PSMoveServerMaxCons; i++) {
+			rgb.set(i, null);
+			hues.set(i, null);
+			for (int j = 0; j < 3; j++) {
+				wantedRGB[i][j] = -1;
+				sentRGB[i][j] = -1;
+			}
+		}
+		System.arraycopy(wantedHues, 0, sentHues, 0, wantedHues.length);
+	}
+
+	private boolean isPending(int channel) {
+		if (channel == HueChannel) {
+			if (!huesUsed) {
+				return false;
+			}
+			for (int i = 0; i < PSMoveClient.PSMoveServerMaxCons; i++) {
+				if (wantedHues[i] != sentHues[i]) {
+					return true;
+				}
+			}
+			return false;
+		}
+		int[] wanted = wantedRGB[channel];
+		int[] sent = sentRGB[channel];
+		return wanted[0] >= 0 && (wanted[0] != sent[0] || wanted[1] != sent[1] || wanted[2] != sent[2]);
+	}
+
+	private boolean send(int channel) throws IOException {
+		if (channel == HueChannel) {
+			if (!client.trySetTrackingColor(wantedHues[0], wantedHues[1], wantedHues[2], wantedHues[3])) {
+				return false;
+			}
+			System.arraycopy(wantedHues, 0, sentHues, 0, wantedHues.length);
+			return true;
+		}
+		int[] wanted = wantedRGB[channel];
+		if (!client.tryForceRGB(channel, wanted[0] / 255f, wanted[1] / 255f, wanted[2] / 255f)) {
+			return false;
+		}
+		System.arraycopy(wanted, 0, sentRGB[channel], 0, 3);
+		return true;
+	}
+
+	private synchronized void schedule() {
+		task.start(0, frameMillis);
+	}
+
+	private static void checkController(int controller) {
+		if (controller < 0 || controller >= PSMoveClient.PSMoveServerMaxCons) {
+			throw new IllegalArgumentException("No such controller " + controller);
+		}
+	}
+}
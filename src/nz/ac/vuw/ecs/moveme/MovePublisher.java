@@ -0,0 +1,38 @@
+/*
+ * Java Move.Me bindings.
+ *
+ * Copyright (C) 2013  Roman Klapaukh
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+
+package nz.ac.vuw.ecs.moveme;
+
+/**
+ * A source of items that subscribers can request at their own pace. Follows the same contract as java.util.concurrent.Flow.Publisher.
+ *
+ * @param <T>
+ *            The type of item published
+ */
+public interface MovePublisher<T> {
+
+	/**
+	 * Add a subscriber. Its onSubscribe method will be called before any items are delivered.
+	 *
+	 * @param subscriber
+	 *            The subscriber to add
+	 */
+	public void subscribe(MoveSubscriber<? super T> subscriber);
+}
@@ -0,0 +1,60 @@
+/*
+ * Java Move.Me bindings.
+ *
+ * Copyright (C) 2013  Roman Klapaukh
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+
+package nz.ac.vuw.ecs.moveme;
+
+/**
+ * Receives items from a {@link MovePublisher}. Follows the same contract as java.util.concurrent.Flow.Subscriber, so on Java 9 and later it can be
+ * bridged to a Flow.Subscriber by forwarding each method.
+ *
+ * @param <T>
+ *            The type of item received
+ */
+public interface MoveSubscriber<T> {
+
+	/**
+	 * Called once, before any other method, with the subscription used to request items
+	 *
+	 * @param subscription
+	 *            The new subscription
+	 */
+	public void onSubscribe(MoveSubscription subscription);
+
+	/**
+	 * Called with the next item, at most as many times as have been requested
+	 *
+	 * @param item
+	 *            The item
+	 */
+	public void onNext(T item);
+
+	/**
+	 * Called if the publisher or the subscriber failed. No more methods are called after this.
+	 *
+	 * @param throwable
+	 *            The cause of the failure
+	 */
+	public void onError(Throwable throwable);
+
+	/**
+	 * Called when the publisher will not produce any more items. No more methods are called after this.
+	 */
+	public void onComplete();
+}
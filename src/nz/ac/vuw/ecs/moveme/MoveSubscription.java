@@ -0,0 +1,40 @@
+/*
+ * Java Move.Me bindings.
+ *
+ * Copyright (C) 2013  Roman Klapaukh
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+
+package nz.ac.vuw.ecs.moveme;
+
+/**
+ * The link between a {@link MovePublisher} and one {@link MoveSubscriber}. Follows the same contract as java.util.concurrent.Flow.Subscription.
+ */
+public interface MoveSubscription {
+
+	/**
+	 * Ask for up to n more items to be delivered. Demand is cumulative.
+	 *
+	 * @param n
+	 *            Number of additional items wanted. Must be positive. Long.MAX_VALUE means unbounded
+	 */
+	public void request(long n);
+
+	/**
+	 * Stop receiving items. Some items may still arrive after this has been called.
+	 */
+	public void cancel();
+}
@@ -22,12 +22,24 @@ package nz.ac.vuw.ecs.moveme;
 
 import java.io.IOException;
 import java.io.OutputStream;
-import java.net.DatagramPacket;
-import java.net.DatagramSocket;
+import java.net.InetSocketAddress;
 import java.net.Socket;
-import java.net.SocketException;
 import java.net.UnknownHostException;
 import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.DatagramChannel;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.locks.ReentrantLock;
 
 public class PSMoveClient implements Runnable {
 
@@ -58,52 +70,144 @@ public class PSMoveClient implements Runnable {
 	private static final int PSMoveClientRequestCameraFramePause = 0x25;
 	private static final int PSMoveClientRequestCameraFrameResume = 0x26;
 
-	private static final int PSMoveServerPacketMagic = 0xff0000dd;
-	private static final int PSMoveServerPacketCodeStandardState = 0x1;
-	private static final int PSMoveServerPacketCodeCameraFrameSlice = 0x2;
-	private static final int PSMoveServerPacketCodeCameraFrameState = 0x3;
-	private static final int PSMoveServerMaxCons = 4;
-	private static final int PSMoveServerMaxNavs = 7;
+	static final int PSMoveServerPacketMagic = 0xff0000dd;
+	static final int PSMoveServerPacketCodeStandardState = 0x1;
+	static final int PSMoveServerPacketCodeCameraFrameSlice = 0x2;
+	static final int PSMoveServerPacketCodeCameraFrameState = 0x3;
+	static final int PSMoveServerMaxCons = 4;
+	static final int PSMoveServerMaxNavs = 7;
 	private static final int PSMoveServerImageBufferSize = 61440;
 	private static final int PSMoveServerCameraFrameSplitFormatJpg = 0x1;
 	private static final int PSMoveServerMaximumCameraFrameSlices = 7;
-	private static final int PSMoveServerCellPadMaxCodes = 64;
+	static final int PSMoveServerCellPadMaxCodes = 64;
 
-	private static final int CodeTracking = 0;
-	private static final int CodeNotConnected = 1;
-	private static final int CodeNotCalibrated = 2;
-	private static final int CodeCalibrating = 3;
-	private static final int CodeComputingAvailableColors = 4;
-	private static final int CodeHueNotSet = 5;
+	public static final int CodeTracking = 0;
+	public static final int CodeNotConnected = 1;
+	public static final int CodeNotCalibrated = 2;
+	public static final int CodeCalibrating = 3;
+	public static final int CodeComputingAvailableColors = 4;
+	public static final int CodeHueNotSet = 5;
 
-	private static final int FlagCalibrationOccured = 0x1;
-	private static final int FlagCalibrationSuceeded = 0x2;
-	private static final int FlagFailCantFindSphere = 0x4;
-	private static final int FlagFailMotionDetected = 0x8;
+	public static final int FlagCalibrationOccured = 0x1;
+	public static final int FlagCalibrationSuceeded = 0x2;
+	public static final int FlagFailCantFindSphere = 0x4;
+	public static final int FlagFailMotionDetected = 0x8;
 
-	private static final int FlagWarnMotionDetected = 0x20;
+	public static final int FlagWarnMotionDetected = 0x20;
 
 	public static final int PICK_FOR_ME = 4 << 24;
 	public static final int DONT_TRACK = 2 << 24;
 
+	// Slots in the receive loop's cache of decoders by payload code, a power of two
+	private static final int DecoderCacheSize = 8;
+
 	private Socket tcpClient;
-	private DatagramSocket udpClient;
+	private DatagramChannel udpClient;
 	private OutputStream outStream;
-	private DatagramPacket p;
+	private ByteBuffer p;
 	private int packetSize = 655360;
+	private ReceiveStrategy receiveStrategy;
+	private ThreadFactory threadFactory;
+	private Executor executor;
+	private final ReentrantLock writeLock;
+	private final LatencyHistogram arrivalHistogram;
+	// Only written by the receive thread
+	private volatile long receivedPackets;
+	private volatile long droppedPackets;
+	private volatile long dispatchNanos;
+	private volatile int packetDelay;
+	private volatile int cameraFrameDelay;
+	private volatile Executor publisherExecutor;
+	// The publisher executor the client created itself, and so has to shut down
+	private ExecutorService defaultPublisherExecutor;
+	private boolean closed;
+	private final ConflatingPublisher<ControllerState> statePublisher;
+	private final ConflatingPublisher<ButtonEvent> buttonPublisher;
+	private final ConflatingPublisher<TrackingEvent> trackingPublisher;
+	private final ConflatingPublisher<CameraFramePacket> cameraFramePublisher;
+	private ScheduledExecutorService scheduler;
+	private boolean ownsScheduler;
+	private final AtomicReferenceArray<CalibrationFuture> pendingCalibrations;
 	private UpdateListener listener;
 	private MoveLostListener lostListener;
 	private volatile boolean running;
-	private boolean isLost;
-	private int buttonsDown;
+	private volatile boolean isLost;
+	private final int[] buttonsDown;
+	private final TrackingMonitor trackingMonitor;
+	// Fields of the current packet, reused to avoid allocating per packet
+	private final boolean[] gemConnected;
+	private final int[] gemCode;
+	private final long[] gemFlags;
+	private final int[] gemButtons;
+	private final int[] gemTrigger;
+	private final boolean[] gemSphereVisible;
+	private volatile LatencyTracer latencyTracer;
+	private volatile BindingTable buttonBindings;
+	// Activity seen by the receive thread, for the AdaptiveRateController
+	private volatile long lastActivity;
+	private volatile float activityMotionThreshold;
+	private final PacketDecoderRegistry decoderRegistry;
 
 	public PSMoveClient() {
 		running = false;
 		isLost = false;
+		buttonsDown = new int[PSMoveServerMaxCons];
+		trackingMonitor = new TrackingMonitor(PSMoveServerMaxCons);
+		gemConnected = new boolean[PSMoveServerMaxCons];
+		gemCode = new int[PSMoveServerMaxCons];
+		gemFlags = new long[PSMoveServerMaxCons];
+		gemButtons = new int[PSMoveServerMaxCons];
+		gemTrigger = new int[PSMoveServerMaxCons];
+		gemSphereVisible = new boolean[PSMoveServerMaxCons];
+		latencyTracer = null;
+		buttonBindings = null;
+		lastActivity = System.nanoTime();
+		activityMotionThreshold = 0;
+		decoderRegistry = new PacketDecoderRegistry();
 		tcpClient = null;
 		udpClient = null;
 		outStream = null;
 		p = null;
+		receiveStrategy = ReceiveStrategy.BLOCKING;
+		threadFactory = null;
+		executor = null;
+		writeLock = new ReentrantLock();
+		arrivalHistogram = new LatencyHistogram();
+		receivedPackets = 0;
+		droppedPackets = 0;
+		dispatchNanos = 0;
+		packetDelay = 0;
+		cameraFrameDelay = 0;
+		publisherExecutor = null;
+		defaultPublisherExecutor = null;
+		closed = false;
+
+		// Deliver on whatever executor is current when an item is ready, so setPublisherExecutor can be called after the publishers exist
+		Executor dispatcher = new Executor() {
+			public void execute(Runnable command) {
+				Executor e = publisherExecutor;
+				if (e == null) {
+					e = getPublisherExecutor();
+				}
+				try {
+					e.execute(command);
+				} catch (RejectedExecutionException ex) {
+					// The default executor was shut down by close, so this is one of the last deliveries
+					command.run();
+				}
+			}
+		};
+		statePublisher = new ConflatingPublisher<ControllerState>(PSMoveServerMaxCons, dispatcher);
+		buttonPublisher = new ConflatingPublisher<ButtonEvent>(PSMoveServerMaxCons, new ConflatingPublisher.Conflater<ButtonEvent>() {
+			public ButtonEvent conflate(ButtonEvent older, ButtonEvent newer) {
+				return ButtonEvent.merge(older, newer);
+			}
+		}, dispatcher);
+		trackingPublisher = new ConflatingPublisher<TrackingEvent>(PSMoveServerMaxCons, dispatcher);
+		cameraFramePublisher = new ConflatingPublisher<CameraFramePacket>(1, dispatcher);
+		scheduler = null;
+		ownsScheduler = false;
+		pendingCalibrations = new AtomicReferenceArray<CalibrationFuture>(PSMoveServerMaxCons);
 	}
 
 	/**
@@ -118,21 +222,297 @@ public class PSMoveClient implements Runnable {
 	 */
 	public void connect(String server, int port) throws UnknownHostException, IOException {
 		running = true;
-		buttonsDown = 0;
+		synchronized (this) {
+			closed = false;
+		}
+		statePublisher.open();
+		buttonPublisher.open();
+		trackingPublisher.open();
+		cameraFramePublisher.open();
+		for (int i = 0; i < PSMoveServerMaxCons; i++) {
+			buttonsDown[i] = 0;
+		}
+		trackingMonitor.reset();
 		tcpClient = new Socket(server, port);
 		tcpClient.setKeepAlive(true);
 		outStream = tcpClient.getOutputStream();
 
-		udpClient = new DatagramSocket();
-		p = new DatagramPacket(new byte[packetSize], packetSize);
-		int udpPort = udpClient.getLocalPort();
+		udpClient = DatagramChannel.open();
+		udpClient.socket().bind(new InetSocketAddress(0));
+		udpClient.configureBlocking(receiveStrategy.isBlocking());
+		p = ByteBuffer.allocate(packetSize);
+		int udpPort = udpClient.socket().getLocalPort();
 		System.out.println("Set up UDP server on Port: " + udpPort);
 
-		Thread t = new Thread(this);
-		t.start();
+		arrivalHistogram.reset();
+		if (executor != null) {
+			executor.execute(this);
+		} else {
+			Thread t = threadFactory != null ? threadFactory.newThread(this) : new Thread(this);
+			t.start();
+		}
 		sendCommand(PSMoveClientRequestInit, udpPort);
 	}
 
+	/**
+	 * Set how the receive thread waits for packets. This must be set before calling connect.
+	 *
+	 * @param strategy
+	 *            The strategy to use. The default is {@link ReceiveStrategy#BLOCKING}
+	 */
+	public void setReceiveStrategy(ReceiveStrategy strategy) {
+		if (strategy == null) {
+			throw new IllegalArgumentException("Receive strategy cannot be null");
+		}
+		this.receiveStrategy = strategy;
+	}
+
+	/**
+	 * Get the strategy the receive thread uses to wait for packets
+	 *
+	 * @return The current receive strategy
+	 */
+	public ReceiveStrategy getReceiveStrategy() {
+		return receiveStrategy;
+	}
+
+	/**
+	 * Set the factory used to create the receive thread. This allows the thread to be given a priority, or pinned to a core by a native affinity
+	 * library. This must be set before calling connect.
+	 *
+	 * @param factory
+	 *            The factory to use, or null to use a plain thread
+	 */
+	public void setThreadFactory(ThreadFactory factory) {
+		this.threadFactory = factory;
+	}
+
+	/**
+	 * Run the receive loop, and so all listener callbacks, as a task on the given executor instead of on a dedicated thread. The task occupies the
+	 * executor until the client is closed. On Java 21 and later passing a virtual thread per task executor lets many sessions share a few carrier
+	 * threads; this should only be combined with {@link ReceiveStrategy#BLOCKING}, as the spinning strategies never give up their carrier. This must
+	 * be set before calling connect and takes precedence over {@link #setThreadFactory(ThreadFactory)}.
+	 *
+	 * @param executor
+	 *            The executor to run the receive loop on, or null to use a thread
+	 */
+	public void setExecutor(Executor executor) {
+		this.executor = executor;
+	}
+
+	/**
+	 * Set the executor that delivers items to subscribers of the publishers. By default a single daemon thread is used. Subscribers are never called
+	 * on the receive thread, so a slow subscriber cannot hold up packet processing.
+	 *
+	 * @param executor
+	 *            The executor to deliver on, or null to use the default
+	 */
+	public synchronized void setPublisherExecutor(Executor executor) {
+		this.publisherExecutor = executor;
+		if (defaultPublisherExecutor != null) {
+			// Items already queued on it are still delivered
+			defaultPublisherExecutor.shutdown();
+			defaultPublisherExecutor = null;
+		}
+	}
+
+	private synchronized Executor getPublisherExecutor() {
+		if (publisherExecutor != null) {
+			return publisherExecutor;
+		}
+		if (closed) {
+			// Only completions are left to deliver, so do not start a thread for them
+			return new Executor() {
+				public void execute(Runnable command) {
+					command.run();
+				}
+			};
+		}
+		defaultPublisherExecutor = Executors.newSingleThreadExecutor(new ThreadFactory() {
+			public Thread newThread(Runnable r) {
+				Thread t = new Thread(r, "Move.Me publisher");
+				t.setDaemon(true);
+				return t;
+			}
+		});
+		publisherExecutor = defaultPublisherExecutor;
+		return publisherExecutor;
+	}
+
+	/**
+	 * Set the scheduler used for timed work such as calibration timeouts. By default a single daemon thread is used.
+	 *
+	 * @param scheduler
+	 *            The scheduler to use, or null to use the default
+	 */
+	public synchronized void setScheduler(ScheduledExecutorService scheduler) {
+		if (ownsScheduler) {
+			this.scheduler.shutdown();
+		}
+		this.scheduler = scheduler;
+		this.ownsScheduler = false;
+	}
+
+	/**
+	 * Get the scheduler used for timed work, creating the default one if none has been set
+	 *
+	 * @return The scheduler
+	 */
+	public synchronized ScheduledExecutorService getScheduler() {
+		if (scheduler == null) {
+			scheduler = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+				public Thread newThread(Runnable r) {
+					Thread t = new Thread(r, "Move.Me scheduler");
+					t.setDaemon(true);
+					return t;
+				}
+			});
+			ownsScheduler = true;
+		}
+		return scheduler;
+	}
+
+	/**
+	 * Get a stream of the decoded state of every controller. Each subscriber keeps at most one undelivered state per controller, newer states
+	 * replace older ones. States are only decoded while someone is subscribed.
+	 *
+	 * @return The controller state publisher
+	 */
+	public MovePublisher<ControllerState> getStatePublisher() {
+		return statePublisher;
+	}
+
+	/**
+	 * Get a stream of button changes for every controller. Undelivered events for the same controller are merged so that no press or release is
+	 * lost.
+	 *
+	 * @return The button event publisher
+	 */
+	public MovePublisher<ButtonEvent> getButtonPublisher() {
+		return buttonPublisher;
+	}
+
+	/**
+	 * Get the monitor that decides when the tracking status of a controller has changed. Use it to tune the hysteresis, debouncing and rate limiting
+	 * of tracking events and of the {@link MoveLostListener}.
+	 *
+	 * @return The tracking monitor
+	 */
+	public TrackingMonitor getTrackingMonitor() {
+		return trackingMonitor;
+	}
+
+	/**
+	 * Get a stream of tracking status changes for every controller. Only the latest undelivered event for each controller is kept.
+	 *
+	 * @return The tracking event publisher
+	 */
+	public MovePublisher<TrackingEvent> getTrackingPublisher() {
+		return trackingPublisher;
+	}
+
+	/**
+	 * Get a stream of camera frame packets. Only the latest undelivered packet is kept, so subscribers wanting every slice of a frame need to keep
+	 * up. Camera frames must be enabled with {@link #cameraFrameResume()}.
+	 *
+	 * @return The camera frame publisher
+	 */
+	public MovePublisher<CameraFramePacket> getCameraFramePublisher() {
+		return cameraFramePublisher;
+	}
+
+	/**
+	 * Get the registry of decoders for the packets the server sends. Register a decoder here to support a newer server. Decoders are looked up once
+	 * per session, so changes take effect on the next connect.
+	 *
+	 * @return The decoder registry
+	 */
+	public PacketDecoderRegistry getDecoderRegistry() {
+		return decoderRegistry;
+	}
+
+	/**
+	 * Turn on latency tracing of standard state packets. Tracing adds a few calls to System.nanoTime per packet and does not allocate.
+	 *
+	 * @param tracer
+	 *            The tracer to record into, or null to turn tracing off
+	 */
+	public void setLatencyTracer(LatencyTracer tracer) {
+		this.latencyTracer = tracer;
+	}
+
+	/**
+	 * @return The current latency tracer, or null if tracing is off
+	 */
+	public LatencyTracer getLatencyTracer() {
+		return latencyTracer;
+	}
+
+	/**
+	 * Install button bindings. The bindings are compiled into lookup tables, so later changes to them have no effect until they are set again. The
+	 * actions run on the receive thread, after the button events have been published and before the UpdateListener is called.
+	 *
+	 * @param bindings
+	 *            The bindings to use, or null to remove all bindings
+	 */
+	public void setButtonBindings(ButtonBindings bindings) {
+		this.buttonBindings = bindings == null ? null : new BindingTable(bindings);
+	}
+
+	/**
+	 * Set the speed above which a connected controller counts as active. A button change always counts.
+	 *
+	 * @param millimetresPerSecond
+	 *            Speed threshold, or 0 to only count button changes
+	 */
+	void setActivityMotionThreshold(float millimetresPerSecond) {
+		this.activityMotionThreshold = millimetresPerSecond;
+	}
+
+	void markActivity() {
+		lastActivity = System.nanoTime();
+	}
+
+	/**
+	 * @return The System.nanoTime of the last packet with a button change or a controller moving faster than the activity motion threshold
+	 */
+	long getLastActivityNanos() {
+		return lastActivity;
+	}
+
+	/**
+	 * @return The number of packets accepted since the client was created
+	 */
+	public long getReceivedPacketCount() {
+		return receivedPackets;
+	}
+
+	/**
+	 * @return The number of packets missing from the sequence of packet indices since the client was created
+	 */
+	public long getDroppedPacketCount() {
+		return droppedPackets;
+	}
+
+	/**
+	 * @return The total time in nanoseconds spent decoding standard state packets and calling listeners since the client was created
+	 */
+	public long getDispatchNanos() {
+		return dispatchNanos;
+	}
+
+	/**
+	 * Get the distribution of arrival jitter at the receive thread: how far the time between consecutive packets was from the packet period, which
+	 * is tracked as a moving average so it follows {@link #delayChange(int)}. Measuring the deviation rather than the whole interval keeps it in the
+	 * microsecond range, where the histogram buckets are narrow enough to compare {@link ReceiveStrategy}s. The server's own send jitter is still
+	 * included. The histogram is reset on every connect.
+	 *
+	 * @return The packet arrival jitter histogram
+	 */
+	public LatencyHistogram getArrivalHistogram() {
+		return arrivalHistogram;
+	}
+
 	/**
 	 * Register an update listener to get updates about the controller state. Only the last listener registered will actually get updates
 	 *
@@ -144,7 +524,8 @@ public class PSMoveClient implements Runnable {
 	}
 
 	/**
-	 * Register a move lost listener to get updates about when the controller has been lost. Only one such listener is active at any one time
+	 * Register a move lost listener to get updates about when the controller has been lost. Only one such listener is active at any one time. The
+	 * listener follows the debounced status of controller 0 from the {@link TrackingMonitor}, so it is not called for single dropped frames.
 	 *
 	 * @param l
 	 *            The listener to send events to
@@ -157,19 +538,50 @@ public class PSMoveClient implements Runnable {
 	}
 
 	/**
-	 * Close the connection with the PlayStation 3
+	 * Close the connection with the PlayStation 3. Subscribers to the publishers are completed once the items waiting for them have been delivered,
+	 * pending calibrations are cancelled, and the threads the client started for itself are stopped. Executors that were supplied by the caller are
+	 * left running.
 	 *
 	 * @throws IOException
 	 */
 	public void close() throws IOException {
-		tcpClient.close();
-		udpClient.close();
 		running = false;
-		tcpClient = null;
-		udpClient = null;
-		outStream = null;
-		p = null;
-		buttonsDown = 0;
+		try {
+			tcpClient.close();
+			udpClient.close();
+		} finally {
+			tcpClient = null;
+			udpClient = null;
+			outStream = null;
+			p = null;
+			statePublisher.close();
+			buttonPublisher.close();
+			trackingPublisher.close();
+			cameraFramePublisher.close();
+			for (int i = 0; i < PSMoveServerMaxCons; i++) {
+				CalibrationFuture calibration = pendingCalibrations.getAndSet(i, null);
+				if (calibration != null) {
+					calibration.cancel(false);
+				}
+			}
+			shutdownDefaultExecutors();
+		}
+	}
+
+	private synchronized void shutdownDefaultExecutors() {
+		closed = true;
+		if (defaultPublisherExecutor != null) {
+			// Let the completions queued by closing the publishers run first
+			defaultPublisherExecutor.shutdown();
+			defaultPublisherExecutor = null;
+			publisherExecutor = null;
+		}
+		if (ownsScheduler) {
+			// Timed work such as animations and calibration timeouts belongs to this connection
+			scheduler.shutdownNow();
+			scheduler = null;
+			ownsScheduler = false;
+		}
 	}
 
 	/**
@@ -192,7 +604,7 @@ public class PSMoveClient implements Runnable {
 	}
 
 	/**
-	 * Set the delay between packets in milliseconds. 2ms Seems to be a good value
+	 * Set the delay between packets in milliseconds. 2ms Seems to be a good value. An {@link AdaptiveRateController} can set this automatically
 	 *
 	 * @param delay_ms
 	 *            Delay between packets
@@ -200,6 +612,16 @@ public class PSMoveClient implements Runnable {
 	 */
 	public void delayChange(int delay_ms) throws IOException {
 		sendCommand(PSMoveClientRequestDelayChange, delay_ms);
+		packetDelay = delay_ms;
+	}
+
+	/**
+	 * Get the delay between packets last set with {@link #delayChange(int)}
+	 *
+	 * @return Delay in milliseconds, or 0 if it has not been set
+	 */
+	public int getPacketDelay() {
+		return packetDelay;
 	}
 
 	/**
@@ -227,6 +649,61 @@ public class PSMoveClient implements Runnable {
 		sendCommand(PSMoveClientRequestCalibrateController, controller);
 	}
 
+	/**
+	 * Calibrate a motion controller without blocking. It should be pointed at the camera and be held still. The returned future completes when the
+	 * state packets show the outcome of the calibration, or fails straight away if they show the controller is not connected. Starting another
+	 * calibration of the same controller cancels this one.
+	 *
+	 * @param controller
+	 *            The index of the controller to calibrate (0-3)
+	 * @param timeoutMillis
+	 *            How long to wait for an outcome before completing with {@link CalibrationResult#TIMED_OUT}. The server does not report a
+	 *            request it ignores, so there must be a timeout.
+	 * @return The pending result
+	 * @throws IOException
+	 */
+	public CalibrationFuture calibrateControllerAsync(int controller, long timeoutMillis) throws IOException {
+		if (timeoutMillis <= 0) {
+			throw new IllegalArgumentException("Calibration timeout must be positive");
+		}
+		final CalibrationFuture f = new CalibrationFuture(controller);
+		CalibrationFuture previous = pendingCalibrations.getAndSet(controller, f);
+		if (previous != null) {
+			previous.cancel(false);
+		}
+		try {
+			calibrateController(controller);
+		} catch (IOException e) {
+			pendingCalibrations.compareAndSet(controller, f, null);
+			f.cancel(false);
+			throw e;
+		}
+		f.setTimeout(getScheduler().schedule(new Runnable() {
+			public void run() {
+				f.complete(CalibrationResult.TIMED_OUT);
+			}
+		}, timeoutMillis, TimeUnit.MILLISECONDS));
+		return f;
+	}
+
+	/**
+	 * Calibrate several motion controllers at the same time without blocking. See {@link #calibrateControllerAsync(int, long)}.
+	 *
+	 * @param timeoutMillis
+	 *            How long to wait for each outcome
+	 * @param controllers
+	 *            The indices of the controllers to calibrate (0-3)
+	 * @return The pending results, in the same order as the controllers
+	 * @throws IOException
+	 */
+	public List<CalibrationFuture> calibrateControllersAsync(long timeoutMillis, int... controllers) throws IOException {
+		List<CalibrationFuture> futures = new ArrayList<CalibrationFuture>(controllers.length);
+		for (int controller : controllers) {
+			futures.add(calibrateControllerAsync(controller, timeoutMillis));
+		}
+		return futures;
+	}
+
 	/**
 	 * Set the left side of the laser pointer box. The controller should be pointed at the left most point.
 	 *
@@ -421,6 +898,57 @@ public class PSMoveClient implements Runnable {
 		sendCommand(PSMoveClientRequestTrackHues, hue0, hue1, hue2, hue3);
 	}
 
+	/**
+	 * Force the controller to go a specific color, unless another command is being written. Meant for animations, where a frame that cannot be
+	 * sent straight away is better skipped than queued. The write itself still blocks while the TCP send buffer is full.
+	 *
+	 * @param gem_num
+	 *            Controller to set the color for (0-3)
+	 * @param r
+	 *            Red component (0.0 - 1.0)
+	 * @param g
+	 *            Green component (0.0 - 1.0)
+	 * @param b
+	 *            Blue component (0.0 - 1.0)
+	 * @return True if the command was sent, false if another command was being written
+	 * @throws IOException
+	 */
+	public boolean tryForceRGB(int gem_num, float r, float g, float b) throws IOException {
+		ByteBuffer buff = ByteBuffer.allocate(24);
+		buff.putInt(PSMoveClientRequestForceRGB);
+		buff.putInt(16);
+		buff.putInt(gem_num);
+		buff.putFloat(r);
+		buff.putFloat(g);
+		buff.putFloat(b);
+		return tryWrite(buff);
+	}
+
+	/**
+	 * Set the tracking hues of all controllers, unless another command is being written. See {@link #setTrackingColor(int, int, int, int)}.
+	 *
+	 * @param hue0
+	 *            Hue for controller 0 (0 - 359)
+	 * @param hue1
+	 *            Hue for controller 1 (0 - 359)
+	 * @param hue2
+	 *            Hue for controller 2 (0 - 359)
+	 * @param hue3
+	 *            Hue for controller 3 (0 - 359)
+	 * @return True if the command was sent, false if another command was being written
+	 * @throws IOException
+	 */
+	public boolean trySetTrackingColor(int hue0, int hue1, int hue2, int hue3) throws IOException {
+		ByteBuffer buff = ByteBuffer.allocate(24);
+		buff.putInt(PSMoveClientRequestTrackHues);
+		buff.putInt(16);
+		buff.putInt(hue0);
+		buff.putInt(hue1);
+		buff.putInt(hue2);
+		buff.putInt(hue3);
+		return tryWrite(buff);
+	}
+
 	/**
 	 * Sets the delay between camera frame packets
 	 *
@@ -430,6 +958,16 @@ public class PSMoveClient implements Runnable {
 	 */
 	public void cameraFrameDelayChange(int image_delay_ms) throws IOException {
 		sendCommand(PSMoveClientRequestCameraFrameDelayChange, image_delay_ms);
+		cameraFrameDelay = image_delay_ms;
+	}
+
+	/**
+	 * Get the delay between camera frame packets last set with {@link #cameraFrameDelayChange(int)}
+	 *
+	 * @return Delay in milliseconds, or 0 if it has not been set
+	 */
+	public int getCameraFrameDelay() {
+		return cameraFrameDelay;
 	}
 
 	/**
@@ -461,13 +999,12 @@ public class PSMoveClient implements Runnable {
 		sendCommand(PSMoveClientRequestCameraFrameResume, 0);
 	}
 
-	public synchronized void sendCommand(int command, int payload) throws IOException {
+	public void sendCommand(int command, int payload) throws IOException {
 		ByteBuffer buff = ByteBuffer.allocate(12);
 		buff.putInt(command);
 		buff.putInt(4);
 		buff.putInt(payload);
-		outStream.write(buff.array());
-		outStream.flush();
+		write(buff);
 	}
 
 	/**
@@ -478,14 +1015,13 @@ public class PSMoveClient implements Runnable {
 	 * @param payload2
 	 * @throws IOException
 	 */
-	public synchronized void sendCommand(int command, int payload1, int payload2) throws IOException {
+	public void sendCommand(int command, int payload1, int payload2) throws IOException {
 		ByteBuffer buff = ByteBuffer.allocate(16);
 		buff.putInt(command);
 		buff.putInt(8);
 		buff.putInt(payload1);
 		buff.putInt(payload2);
-		outStream.write(buff.array());
-		outStream.flush();
+		write(buff);
 	}
 
 	/**
@@ -496,7 +1032,7 @@ public class PSMoveClient implements Runnable {
 	 * @param payload2
 	 * @throws IOException
 	 */
-	public synchronized void sendCommand(int command, int payload1, float payload2, float payload3, float payload4) throws IOException {
+	public void sendCommand(int command, int payload1, float payload2, float payload3, float payload4) throws IOException {
 		ByteBuffer buff = ByteBuffer.allocate(24);
 		buff.putInt(command);
 		buff.putInt(16);
@@ -504,8 +1040,7 @@ public class PSMoveClient implements Runnable {
 		buff.putFloat(payload2);
 		buff.putFloat(payload3);
 		buff.putFloat(payload4);
-		outStream.write(buff.array());
-		outStream.flush();
+		write(buff);
 	}
 
 	/**
@@ -516,7 +1051,7 @@ public class PSMoveClient implements Runnable {
 	 * @param payload2
 	 * @throws IOException
 	 */
-	public synchronized void sendCommand(int command, int payload1, int payload2, int payload3, int payload4) throws IOException {
+	public void sendCommand(int command, int payload1, int payload2, int payload3, int payload4) throws IOException {
 		ByteBuffer buff = ByteBuffer.allocate(24);
 		buff.putInt(command);
 		buff.putInt(16);
@@ -524,8 +1059,7 @@ public class PSMoveClient implements Runnable {
 		buff.putInt(payload2);
 		buff.putInt(payload3);
 		buff.putInt(payload4);
-		outStream.write(buff.array());
-		outStream.flush();
+		write(buff);
 	}
 
 	/**
@@ -536,38 +1070,140 @@ public class PSMoveClient implements Runnable {
 	 * @param payload2
 	 * @throws IOException
 	 */
-	public synchronized void sendCommand(int command, int payload1, float payload2) throws IOException {
+	public void sendCommand(int command, int payload1, float payload2) throws IOException {
 		ByteBuffer buff = ByteBuffer.allocate(16);
 		buff.putInt(command);
 		buff.putInt(8);
 		buff.putInt(payload1);
 		buff.putFloat(payload2);
-		outStream.write(buff.array());
-		outStream.flush();
+		write(buff);
+	}
+
+	/**
+	 * Write a command to the TCP channel. A lock is used rather than a monitor so that threads waiting to send, including virtual threads, are not
+	 * pinned while another command is being written.
+	 *
+	 * @param buff
+	 *            The complete command
+	 * @throws IOException
+	 */
+	private void write(ByteBuffer buff) throws IOException {
+		writeLock.lock();
+		try {
+			outStream.write(buff.array());
+			outStream.flush();
+		} finally {
+			writeLock.unlock();
+		}
+	}
+
+	/**
+	 * Write a command to the TCP channel if no other command is being written. Once the lock is taken the write is an ordinary blocking one, so
+	 * a full send buffer still blocks the caller.
+	 *
+	 * @param buff
+	 *            The complete command
+	 * @return True if the command was written
+	 * @throws IOException
+	 */
+	private boolean tryWrite(ByteBuffer buff) throws IOException {
+		if (!writeLock.tryLock()) {
+			return false;
+		}
+		try {
+			outStream.write(buff.array());
+			outStream.flush();
+		} finally {
+			writeLock.unlock();
+		}
+		return true;
 	}
 
 	public void run() {
+		DatagramChannel channel = udpClient;
+		ByteBuffer buf = p;
+		ReceiveStrategy strategy = receiveStrategy;
+		// The decoder for each payload code is looked up once per session, and so is the lack of one
+		boolean[] cached = new boolean[DecoderCacheSize];
+		int[] cachedMagic = new int[DecoderCacheSize];
+		int[] cachedVersion = new int[DecoderCacheSize];
+		int[] cachedPayloadCode = new int[DecoderCacheSize];
+		PacketDecoder[] cachedDecoder = new PacketDecoder[DecoderCacheSize];
+		AtomicLong[] cachedUnknown = new AtomicLong[DecoderCacheSize];
 		int lastPacketIndex = Integer.MIN_VALUE;
+		long lastArrival = 0;
+		long arrivalPeriod = 0;
 		while (running) {
 			try {
-				udpClient.receive(p);
-				ByteBuffer buf = ByteBuffer.wrap(p.getData(), 0, p.getLength());
-				int magic = buf.getInt();
-				int serverVersion = buf.getInt();
-				int payloadCode = buf.getInt();
-				int packetIndex = buf.getInt();
-
-				if (packetIndex < lastPacketIndex || serverVersion != 1 || magic != PSMoveServerPacketMagic) {
+				buf.clear();
+				strategy.receive(channel, buf);
+				long arrival = System.nanoTime();
+				buf.flip();
+				if (buf.remaining() < PSMoveServerPacket.HeaderSize) {
+					continue;
+				}
+				int magic = PSMoveServerPacket.magic(buf);
+				int serverVersion = PSMoveServerPacket.serverVersion(buf);
+				int payloadCode = PSMoveServerPacket.payloadCode(buf);
+
+				int slot = payloadCode & (DecoderCacheSize - 1);
+				if (!cached[slot] || cachedMagic[slot] != magic || cachedVersion[slot] != serverVersion || cachedPayloadCode[slot] != payloadCode) {
+					PacketDecoder found = decoderRegistry.lookup(magic, serverVersion, payloadCode);
+					cached[slot] = true;
+					cachedMagic[slot] = magic;
+					cachedVersion[slot] = serverVersion;
+					cachedPayloadCode[slot] = payloadCode;
+					cachedDecoder[slot] = found;
+					cachedUnknown[slot] = found == null ? decoderRegistry.unknownCounter(magic, serverVersion, payloadCode) : null;
+				}
+				PacketDecoder decoder = cachedDecoder[slot];
+				if (decoder == null) {
+					decoderRegistry.countUnknown(cachedUnknown[slot]);
+					continue;
+				}
+				ByteBuffer packet = decoder.decode(buf);
+				if (packet == null || packet.limit() < PSMoveServerPacket.HeaderSize) {
+					continue;
+				}
+				int packetIndex = PSMoveServerPacket.packetIndex(packet);
+
+				if (packetIndex < lastPacketIndex) {
 					// System.out.println("Skipping");
 					continue;
 				}
+				if (lastPacketIndex != Integer.MIN_VALUE && packetIndex - lastPacketIndex > 1) {
+					droppedPackets += packetIndex - lastPacketIndex - 1;
+				}
+				receivedPackets++;
+				if (lastArrival != 0 && packetIndex > lastPacketIndex) {
+					// Spread the time over any packets dropped in between
+					long interval = (arrival - lastArrival) / (packetIndex - lastPacketIndex);
+					if (arrivalPeriod == 0) {
+						arrivalPeriod = interval;
+					} else {
+						arrivalHistogram.record(Math.abs(interval - arrivalPeriod));
+						// Follow the server's period as a moving average over about 16 packets
+						arrivalPeriod += (interval - arrivalPeriod) / 16;
+					}
+				}
 				lastPacketIndex = packetIndex;
-				if (payloadCode != 1) {
-					System.err.println("Unimplemented payload code " + payloadCode);
+				lastArrival = arrival;
+				if (payloadCode == PSMoveServerPacketCodeStandardState && packet.limit() < PSMoveServerPacket.StandardStateSize) {
+					System.err.println("Standard state packet too short: " + packet.limit() + " bytes");
+				} else if (payloadCode == PSMoveServerPacketCodeStandardState) {
+					readData(packet, packetIndex, arrival);
+					dispatchNanos += System.nanoTime() - arrival;
+				} else if (payloadCode == PSMoveServerPacketCodeCameraFrameSlice || payloadCode == PSMoveServerPacketCodeCameraFrameState) {
+					if (cameraFramePublisher.hasSubscribers()) {
+						byte[] payload = new byte[packet.limit() - PSMoveServerPacket.HeaderSize];
+						packet.position(PSMoveServerPacket.HeaderSize);
+						packet.get(payload);
+						cameraFramePublisher.submit(0, new CameraFramePacket(payloadCode, packetIndex, payload));
+					}
 				} else {
-					readData(buf);
+					System.err.println("Unimplemented payload code " + payloadCode);
 				}
-			} catch (SocketException e) {
+			} catch (ClosedChannelException e) {
 				// Means that the udpClient was closed, so the application should
 				// shut down
 				return;
@@ -577,184 +1213,135 @@ public class PSMoveClient implements Runnable {
 		}
 	}
 
-	private void realFullData(ByteBuffer b) {
-		// Read the server config
-		int num_image_slices = b.getInt();
-		int image_slice_format = b.getInt();
-
-		// Read the client config
-		int ms_delay_between_standard_packets = b.getInt();
-		int ms_delay_between_camera_frame_packets = b.getInt();
-		int cameraFramePacketPaused = b.getInt();
-
-		// PS Move Status for each controller
-		for (int i = 0; i < PSMoveClient.PSMoveServerMaxCons; i++) {
-			int connected = b.getInt();
-			int code = b.getInt();
-			long flags = b.getLong();
-		}
+	private void readData(ByteBuffer b, int packetIndex, long arrival) {
+		LatencyTracer tracer = latencyTracer;
+		long serverTimestamp = 0;
+		for (int i = 0; i < PSMoveServerMaxCons; i++) {
+			gemConnected[i] = PSMoveServerPacket.connected(b, i);
+			gemCode[i] = PSMoveServerPacket.code(b, i);
+			gemFlags[i] = PSMoveServerPacket.flags(b, i);
 
-		// PS move state for each controller
-		for (int i = 0; i < PSMoveClient.PSMoveServerMaxCons; i++) {
-			float[] pos = new float[4];
-			float[] vel = new float[4];
-			float[] accel = new float[4];
-			float[] quat = new float[4];
-			float[] angvel = new float[4];
-			float[] angaccel = new float[4];
-			float[] handlePos = new float[4];
-			float[] handleVel = new float[4];
-			float[] handleAccel = new float[4];
+			gemButtons[i] = PSMoveServerPacket.digitalButtons(b, i);
+			gemTrigger[i] = PSMoveServerPacket.analogT(b, i);
 
-			for (int j = 0; j < 4; j++) {
-				pos[j] = b.getFloat();
+			gemSphereVisible[i] = PSMoveServerPacket.sphereVisible(b, i);
+			if (gemConnected[i]) {
+				serverTimestamp = Math.max(serverTimestamp, PSMoveServerPacket.timestamp(b, i));
 			}
-			for (int j = 0; j < 4; j++) {
-				vel[j] = b.getFloat();
-			}
-			for (int j = 0; j < 4; j++) {
-				accel[j] = b.getFloat();
-			}
-			for (int j = 0; j < 4; j++) {
-				quat[j] = b.getFloat();
+		}
+		long decoded = tracer != null ? System.nanoTime() : 0;
+
+		BindingTable bindings = buttonBindings;
+		float motionThreshold = activityMotionThreshold;
+		boolean active = false;
+		int controller0Pushed = 0, controller0Held = 0, controller0Released = 0;
+		TrackingEvent controller0Tracking = null;
+		for (int i = 0; i < PSMoveServerMaxCons; i++) {
+			int digitalButtons = gemButtons[i];
+			int diff = digitalButtons ^ buttonsDown[i];
+			int digitalButtonsPushed = diff & digitalButtons;
+			int buttonsHeld = digitalButtons & buttonsDown[i];
+			int buttonsReleased = diff & buttonsDown[i];
+
+			buttonsDown[i] = digitalButtons;
+			if (!active && gemConnected[i]) {
+				active = diff != 0 || motionThreshold > 0 && isMoving(b, i, motionThreshold);
 			}
-			for (int j = 0; j < 4; j++) {
-				angvel[j] = b.getFloat();
+
+			if (diff != 0 && buttonPublisher.hasSubscribers()) {
+				buttonPublisher.submit(i, new ButtonEvent(i, digitalButtonsPushed, buttonsHeld, buttonsReleased, gemTrigger[i], arrival));
 			}
-			for (int j = 0; j < 4; j++) {
-				angaccel[j] = b.getFloat();
+			if (bindings != null) {
+				bindings.update(i, digitalButtons, digitalButtonsPushed, buttonsReleased, gemTrigger[i], arrival);
 			}
-			for (int j = 0; j < 4; j++) {
-				handlePos[j] = b.getFloat();
+			CalibrationFuture calibration = pendingCalibrations.get(i);
+			if (calibration != null && calibration.update(gemCode[i], gemFlags[i])) {
+				pendingCalibrations.compareAndSet(i, calibration, null);
 			}
-			for (int j = 0; j < 4; j++) {
-				handleVel[j] = b.getFloat();
+
+			TrackingEvent trackingEvent = trackingMonitor.update(i, gemConnected[i], gemCode[i], gemFlags[i], gemSphereVisible[i], arrival);
+			if (trackingEvent != null && trackingPublisher.hasSubscribers()) {
+				trackingPublisher.submit(i, trackingEvent);
 			}
-			for (int j = 0; j < 4; j++) {
-				handleAccel[j] = b.getFloat();
+			if (statePublisher.hasSubscribers()) {
+				statePublisher.submit(i, readState(b, i, packetIndex, gemConnected[i], gemCode[i], digitalButtons, gemTrigger[i], gemSphereVisible[i]));
 			}
 
-			// PS Move Pad data
-			short digitalButtons = b.getShort();
-			short trigger = b.getShort();
-
-			long timestamp = b.getLong();
-			float temperature = b.getFloat();
-			float cameraPitchAngle = b.getFloat();
-			int trackingFlags = b.getInt();
-		}
-
-		// PSMove image state for each controller
-		for (int i = 0; i < PSMoveClient.PSMoveServerMaxCons; i++) {
-			long frameTimestamp = b.getLong();
-			long timestamp = b.getLong();
-			float u = b.getFloat();
-			float v = b.getFloat();
-			float r = b.getFloat();
-			float projectionX = b.getFloat();
-			float projectionY = b.getFloat();
-			float distance = b.getFloat();
-			int visible = b.getInt();
-			int rValid = b.getInt();
-		}
-
-		// PSMove pointer state for each controller (laser info)
-		for (int i = 0; i < PSMoveClient.PSMoveServerMaxCons; i++) {
-			int valid = b.getInt();
-			float normalisedX = b.getFloat();
-			float normalisedY = b.getFloat();
-		}
-
-		// PS Nav pad info
-		int[] portStatus = new int[PSMoveServerMaxNavs];
-		for (int i = 0; i < PSMoveServerMaxNavs; i++) {
-			portStatus[i] = b.getInt();
-		}
-
-		// PS Nav pad data for each nav pad
-		for (int i = 0; i < PSMoveServerMaxNavs; i++) {
-			int length = b.getInt();
-			short[] button = new short[PSMoveServerCellPadMaxCodes];
-			for (int j = 0; j < PSMoveServerCellPadMaxCodes; j++) {
-				button[j] = b.getShort();
+			if (i == 0) {
+				controller0Pushed = digitalButtonsPushed;
+				controller0Held = buttonsHeld;
+				controller0Released = buttonsReleased;
+				controller0Tracking = trackingEvent;
 			}
 		}
+		if (active) {
+			lastActivity = arrival;
+		}
+		long enqueued = tracer != null ? System.nanoTime() : 0;
+
+		updateListeners(b, gemConnected[0], gemCode[0], controller0Pushed, controller0Held, controller0Released, gemTrigger[0], controller0Tracking);
 
-		// PS Move sphere data for each controller
-		for (int i = 0; i < PSMoveClient.PSMoveServerMaxCons; i++) {
-			int tracking = b.getInt();
-			int tackingHue = b.getInt();
-			float r = b.getFloat();
-			float g = b.getFloat();
-			float blue = b.getFloat();
+		if (tracer != null) {
+			tracer.record(packetIndex, arrival, decoded, enqueued, System.nanoTime(), serverTimestamp);
 		}
+	}
 
-		// Camera State
-		int exposure = b.getInt();
-		float exposureTime = b.getFloat();
-		float gain = b.getFloat();
-		float pitchAngle = b.getFloat();
-		float pitchAngleEstimate = b.getFloat();
+	private static boolean isMoving(ByteBuffer b, int controller, float threshold) {
+		float x = PSMoveServerPacket.vel(b, controller, 0);
+		float y = PSMoveServerPacket.vel(b, controller, 1);
+		float z = PSMoveServerPacket.vel(b, controller, 2);
+		return x * x + y * y + z * z > threshold * threshold;
+	}
 
-		// PS Move Position Pointer state;
-		for (int i = 0; i < PSMoveClient.PSMoveServerMaxCons; i++) {
-			int valid = b.getInt();
-			float normalisedX = b.getFloat();
-			float normalisedY = b.getFloat();
+	private ControllerState readState(ByteBuffer b, int controller, int packetIndex, boolean connected, int code, int digitalButtons, int analog_T,
+			boolean sphereVisible) {
+		float[] pos = new float[4];
+		float[] vel = new float[4];
+		float[] quat = new float[4];
+		for (int j = 0; j < 4; j++) {
+			pos[j] = PSMoveServerPacket.pos(b, controller, j);
+			vel[j] = PSMoveServerPacket.vel(b, controller, j);
+			quat[j] = PSMoveServerPacket.quat(b, controller, j);
 		}
+		return new ControllerState(controller, packetIndex, connected, code, PSMoveServerPacket.flags(b, controller), pos, vel, quat, digitalButtons,
+				analog_T, PSMoveServerPacket.timestamp(b, controller), sphereVisible, PSMoveServerPacket.pointerValid(b, controller),
+				PSMoveServerPacket.pointerX(b, controller), PSMoveServerPacket.pointerY(b, controller), PSMoveServerPacket.positionPointerValid(b, controller),
+				PSMoveServerPacket.positionPointerX(b, controller), PSMoveServerPacket.positionPointerY(b, controller));
 	}
 
 	// long lastFlag = -1;
 	// int lastCode = -1;
-	private void readData(ByteBuffer b) {
-		boolean controller0Connected = b.getInt(40) != 0 ? true : false;
-		int controller0Code = b.getInt(40 + 4);
-		long controller0Flags = b.getLong(40 + 8);
+	private void updateListeners(ByteBuffer b, boolean controller0Connected, int controller0Code, int digitalButtonsPushed, int buttonsHeld,
+			int buttonsReleased, int analog_T, TrackingEvent trackingEvent) {
+		boolean pointerStateValid = PSMoveServerPacket.pointerValid(b, 0);
+		float normalized_x = PSMoveServerPacket.pointerX(b, 0);
+		float normalized_y = PSMoveServerPacket.pointerY(b, 0);
 
-		int digitalButtons = b.getShort(104 + 144);
-		int analog_T = b.getShort(104 + 144 + 2);
+		boolean trackingEnabled = PSMoveServerPacket.sphereTracking(b, 0);
 
-		// boolean sphereVisible = b.get(808 + 37) != 0 ? true : false;
-		boolean sphereVisible = b.getInt(808 + 40) != 0 ? true : false;
-
-		boolean pointerStateValid = b.getInt(1000) != 0 ? true : false;
-		float normalized_x = b.getFloat(1004);
-		float normalized_y = b.getFloat(1008);
-
-		boolean trackingEnabled = b.getInt(2000) != 0 ? true : false;
-
-		boolean posPointerStateValid = b.getInt(2100) != 0 ? true : false;
-		float posNormalized_x = b.getFloat(2104);
-		float posNormalized_y = b.getFloat(2108);
+		boolean posPointerStateValid = PSMoveServerPacket.positionPointerValid(b, 0);
+		float posNormalized_x = PSMoveServerPacket.positionPointerX(b, 0);
+		float posNormalized_y = PSMoveServerPacket.positionPointerY(b, 0);
 
 		// if (controller0Code != lastCode) {
 		// System.out.println("Code: " + controller0Code);
 		// lastCode = controller0Code;
 		// }
-		// if (controller0Flags != lastFlag) {
-		// lastFlag = controller0Flags;
-		// System.out.printf("Flags: %08x\n", controller0Flags);
-		// }
 		if (!controller0Connected && controller0Code == 1) {
 			if (listener != null) {
 				listener.noController();
 			}
 		}
 
-		int diff = digitalButtons ^ buttonsDown;
-		int digitalButtonsPushed = diff & digitalButtons;
-		int buttonsHeld = digitalButtons & buttonsDown;
-		int buttonsReleased = diff & buttonsDown;
-
-		buttonsDown = digitalButtons;
-
-		if (!sphereVisible && !isLost) {
+		if (trackingEvent == null) {
+			// No change worth reporting
+		} else if (trackingEvent.isLost() && !isLost) {
 			isLost = true;
 			if (lostListener != null) {
 				lostListener.moveLost();
 			}
 			// System.out.println("Sphere not visible");
-		} else if (sphereVisible && isLost) {
+		} else if (!trackingEvent.isLost() && isLost) {
 			isLost = false;
 			if (lostListener != null) {
 				lostListener.moveRegained();
@@ -784,33 +1371,40 @@ public class PSMoveClient implements Runnable {
 
 	public static void main(String args[]) {
 		final PSMoveClient client = new PSMoveClient();
+		client.setButtonBindings(new ButtonBindings().onPress(0, UpdateListener.ButtonCircle, new ButtonAction() {
+			public void perform(int controller, int trigger) throws IOException {
+				client.setLaserRight(controller);
+			}
+		}).onPress(0, UpdateListener.ButtonCross, new ButtonAction() {
+			public void perform(int controller, int trigger) throws IOException {
+				client.setLaserBottom(controller);
+			}
+		}).onPress(0, UpdateListener.ButtonTriangle, new ButtonAction() {
+			public void perform(int controller, int trigger) throws IOException {
+				client.setLaserTop(controller);
+			}
+		}).onPress(0, UpdateListener.ButtonSquare, new ButtonAction() {
+			public void perform(int controller, int trigger) throws IOException {
+				client.setLaserLeft(controller);
+			}
+		}).onPress(0, UpdateListener.ButtonSelect, new ButtonAction() {
+			public void perform(int controller, int trigger) throws IOException {
+				client.resetController(controller);
+			}
+		}).onPress(0, UpdateListener.ButtonStart, new ButtonAction() {
+			public void perform(int controller, int trigger) throws IOException {
+				client.calibrateController(controller);
+			}
+		}));
 		client.registerListener(new UpdateListener() {
 
 			@Override
 			public void positionUpdate(int buttonsPushed, int buttonsHeld, int buttonsReleased, int trigger) {
 				// System.out.printf("%02x %02x %02x\n", buttonsPushed, buttonsHeld, buttonsReleased);
 				try {
-					if ((buttonsPushed & UpdateListener.ButtonCircle) != 0) {
-						client.setLaserRight(0);
-					}
-					if ((buttonsPushed & UpdateListener.ButtonCross) != 0) {
-						client.setLaserBottom(0);
-					}
-					if ((buttonsPushed & UpdateListener.ButtonTriangle) != 0) {
-						client.setLaserTop(0);
-					}
-					if ((buttonsPushed & UpdateListener.ButtonSquare) != 0) {
-						client.setLaserLeft(0);
-					}
 					if ((buttonsPushed & UpdateListener.ButtonMove) != 0) {
 						client.enableLaser(0);
 					}
-					if ((buttonsPushed & UpdateListener.ButtonSelect) != 0) {
-						client.resetController(0);
-					}
-					if ((buttonsPushed & UpdateListener.ButtonStart) != 0) {
-						client.calibrateController(0);
-					}
 
 				} catch (IOException e) {
 					e.printStackTrace();
@@ -820,27 +1414,9 @@ public class PSMoveClient implements Runnable {
 			@Override
 			public void positionUpdate(float x, float y, int buttonsPushed, int buttonsHeld, int buttonsReleased, int trigger) {
 				try {
-					if ((buttonsPushed & UpdateListener.ButtonCircle) != 0) {
-						client.setLaserRight(0);
-					}
-					if ((buttonsPushed & UpdateListener.ButtonCross) != 0) {
-						client.setLaserBottom(0);
-					}
-					if ((buttonsPushed & UpdateListener.ButtonTriangle) != 0) {
-						client.setLaserTop(0);
-					}
-					if ((buttonsPushed & UpdateListener.ButtonSquare) != 0) {
-						client.setLaserLeft(0);
-					}
 					if ((buttonsPushed & UpdateListener.ButtonMove) != 0) {
 						client.setTrackingColor(PICK_FOR_ME, PICK_FOR_ME, PICK_FOR_ME, PICK_FOR_ME);
 					}
-					if ((buttonsPushed & UpdateListener.ButtonSelect) != 0) {
-						client.resetController(0);
-					}
-					if ((buttonsPushed & UpdateListener.ButtonStart) != 0) {
-						client.calibrateController(0);
-					}
 
 				} catch (IOException e) {
 					e.printStackTrace();
@@ -860,31 +1436,16 @@ public class PSMoveClient implements Runnable {
 			// client.disableLaser(0);
 			// client.disablePosition(0);
 
-			int[] col = { 0, 100, 250 };
-			int[] step = { 1, -1, 1 };
-			while (true) {
-				client.setTrackingColor(col[0], col[1], col[2], PICK_FOR_ME);
-				for (int i = 0; i < 3; i++) {
-					col[i] = col[i] + step[i];
-					if (col[i] == 70) {
-						step[i] *= -1;
-						col[i] += step[i];
-					}
-					if (col[i] == -1) {
-						col[i] = 359;
-					}
-					if (col[i] == 360) {
-						col[i] = 0;
-					}
-				}
-				Thread.sleep(10);
+			LightAnimator lights = new LightAnimator(client);
+			for (int i = 0; i < 3; i++) {
+				int hue = i * 100;
+				lights.animate(i, ColorAnimation.hue(true).keyframe(0, hue).keyframe(1200, (hue + 120) % 360).keyframe(2400, (hue + 240) % 360)
+						.keyframe(3600, hue));
 			}
 		} catch (UnknownHostException e) {
 			e.printStackTrace();
 		} catch (IOException e) {
 			e.printStackTrace();
-		} catch (InterruptedException e) {
-			e.printStackTrace();
 		}
 
 	}
@@ -0,0 +1,256 @@
+/*
+ * Java Move.Me bindings.
+ *
+ * Copyright (C) 2013  Roman Klapaukh
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+
+package nz.ac.vuw.ecs.moveme;
+
+import java.nio.ByteBuffer;
+
+/**
+ * The packets sent by the Move.Me server. The layouts below are the only place the packet format is written down. Every offset the accessors use
+ * is worked out from them once, when the class is initialised, and kept in a static final field, so the JIT compiles the accessors down to reads at
+ * constant offsets. To decode a new field, declare it in the layout and add an accessor that reads at its offset.
+ *
+ * Camera frame packets share the header. The rest of a camera frame packet is passed on undecoded.
+ */
+final class PSMoveServerPacket {
+
+	static final PacketLayout Header = PacketLayout.struct("Header")
+			.int32("magic")
+			.int32("serverVersion")
+			.int32("payloadCode")
+			.int32("packetIndex")
+			.int32("reserved")
+			.build();
+
+	static final PacketLayout ServerConfig = PacketLayout.struct("ServerConfig")
+			.int32("numImageSlices")
+			.int32("imageSliceFormat")
+			.build();
+
+	static final PacketLayout ClientConfig = PacketLayout.struct("ClientConfig")
+			.int32("msDelayBetweenStandardPackets")
+			.int32("msDelayBetweenCameraFramePackets")
+			.int32("cameraFramePacketPaused")
+			.build();
+
+	static final PacketLayout Status = PacketLayout.struct("Status")
+			.int32("connected")
+			.int32("code")
+			.int64("flags")
+			.build();
+
+	static final PacketLayout State = PacketLayout.struct("State")
+			.float32("pos", 4)
+			.float32("vel", 4)
+			.float32("accel", 4)
+			.float32("quat", 4)
+			.float32("angvel", 4)
+			.float32("angaccel", 4)
+			.float32("handlePos", 4)
+			.float32("handleVel", 4)
+			.float32("handleAccel", 4)
+			.int16("digitalButtons")
+			.int16("analogT")
+			.int64("timestamp")
+			.float32("temperature")
+			.float32("cameraPitchAngle")
+			.int32("trackingFlags")
+			.build();
+
+	static final PacketLayout ImageState = PacketLayout.struct("ImageState")
+			.int64("frameTimestamp")
+			.int64("timestamp")
+			.float32("u")
+			.float32("v")
+			.float32("r")
+			.float32("projectionX")
+			.float32("projectionY")
+			.float32("distance")
+			.int32("visible")
+			.int32("rValid")
+			.build();
+
+	static final PacketLayout Pointer = PacketLayout.struct("Pointer")
+			.int32("valid")
+			.float32("normalizedX")
+			.float32("normalizedY")
+			.build();
+
+	static final PacketLayout NavPad = PacketLayout.struct("NavPad")
+			.int32("length")
+			.int16("button", PSMoveClient.PSMoveServerCellPadMaxCodes)
+			.build();
+
+	static final PacketLayout Sphere = PacketLayout.struct("Sphere")
+			.int32("tracking")
+			.int32("trackingHue")
+			.float32("r")
+			.float32("g")
+			.float32("b")
+			.build();
+
+	static final PacketLayout CameraState = PacketLayout.struct("CameraState")
+			.int32("exposure")
+			.float32("exposureTime")
+			.float32("gain")
+			.float32("pitchAngle")
+			.float32("pitchAngleEstimate")
+			.build();
+
+	static final PacketLayout StandardState = PacketLayout.struct("StandardState")
+			.struct("header", Header)
+			.struct("serverConfig", ServerConfig)
+			.struct("clientConfig", ClientConfig)
+			.struct("status", Status, PSMoveClient.PSMoveServerMaxCons)
+			.struct("state", State, PSMoveClient.PSMoveServerMaxCons)
+			.struct("imageState", ImageState, PSMoveClient.PSMoveServerMaxCons)
+			.struct("pointer", Pointer, PSMoveClient.PSMoveServerMaxCons)
+			.int32("navPortStatus", PSMoveClient.PSMoveServerMaxNavs)
+			.struct("navPad", NavPad, PSMoveClient.PSMoveServerMaxNavs)
+			.struct("sphere", Sphere, PSMoveClient.PSMoveServerMaxCons)
+			.struct("cameraState", CameraState)
+			.struct("positionPointer", Pointer, PSMoveClient.PSMoveServerMaxCons)
+			.build();
+
+	static final int HeaderSize = Header.size();
+	// The server may not send the padding after the last field
+	static final int StandardStateSize = StandardState.endOf("positionPointer");
+
+	private static final int Magic = Header.offsetOf("magic");
+	private static final int ServerVersion = Header.offsetOf("serverVersion");
+	private static final int PayloadCode = Header.offsetOf("payloadCode");
+	private static final int PacketIndex = Header.offsetOf("packetIndex");
+
+	private static final int StatusStride = StandardState.strideOf("status");
+	private static final int StatusConnected = StandardState.offsetOf("status.connected");
+	private static final int StatusCode = StandardState.offsetOf("status.code");
+	private static final int StatusFlags = StandardState.offsetOf("status.flags");
+
+	private static final int StateStride = StandardState.strideOf("state");
+	private static final int StatePos = StandardState.offsetOf("state.pos");
+	private static final int StateVel = StandardState.offsetOf("state.vel");
+	private static final int StateQuat = StandardState.offsetOf("state.quat");
+	private static final int StateDigitalButtons = StandardState.offsetOf("state.digitalButtons");
+	private static final int StateAnalogT = StandardState.offsetOf("state.analogT");
+	private static final int StateTimestamp = StandardState.offsetOf("state.timestamp");
+
+	private static final int ImageStateStride = StandardState.strideOf("imageState");
+	private static final int ImageStateVisible = StandardState.offsetOf("imageState.visible");
+
+	private static final int PointerStride = StandardState.strideOf("pointer");
+	private static final int PointerValid = StandardState.offsetOf("pointer.valid");
+	private static final int PointerX = StandardState.offsetOf("pointer.normalizedX");
+	private static final int PointerY = StandardState.offsetOf("pointer.normalizedY");
+
+	private static final int SphereStride = StandardState.strideOf("sphere");
+	private static final int SphereTracking = StandardState.offsetOf("sphere.tracking");
+
+	private static final int PositionPointerStride = StandardState.strideOf("positionPointer");
+	private static final int PositionPointerValid = StandardState.offsetOf("positionPointer.valid");
+	private static final int PositionPointerX = StandardState.offsetOf("positionPointer.normalizedX");
+	private static final int PositionPointerY = StandardState.offsetOf("positionPointer.normalizedY");
+
+	private PSMoveServerPacket() {
+	}
+
+	static int magic(ByteBuffer b) {
+		return b.getInt(Magic);
+	}
+
+	static int serverVersion(ByteBuffer b) {
+		return b.getInt(ServerVersion);
+	}
+
+	static int payloadCode(ByteBuffer b) {
+		return b.getInt(PayloadCode);
+	}
+
+	static int packetIndex(ByteBuffer b) {
+		return b.getInt(PacketIndex);
+	}
+
+	static boolean connected(ByteBuffer b, int gem) {
+		return b.getInt(StatusConnected + gem * StatusStride) != 0;
+	}
+
+	static int code(ByteBuffer b, int gem) {
+		return b.getInt(StatusCode + gem * StatusStride);
+	}
+
+	static long flags(ByteBuffer b, int gem) {
+		return b.getLong(StatusFlags + gem * StatusStride);
+	}
+
+	static float pos(ByteBuffer b, int gem, int axis) {
+		return b.getFloat(StatePos + gem * StateStride + axis * 4);
+	}
+
+	static float vel(ByteBuffer b, int gem, int axis) {
+		return b.getFloat(StateVel + gem * StateStride + axis * 4);
+	}
+
+	static float quat(ByteBuffer b, int gem, int axis) {
+		return b.getFloat(StateQuat + gem * StateStride + axis * 4);
+	}
+
+	static int digitalButtons(ByteBuffer b, int gem) {
+		return b.getShort(StateDigitalButtons + gem * StateStride);
+	}
+
+	static int analogT(ByteBuffer b, int gem) {
+		return b.getShort(StateAnalogT + gem * StateStride);
+	}
+
+	static long timestamp(ByteBuffer b, int gem) {
+		return b.getLong(StateTimestamp + gem * StateStride);
+	}
+
+	static boolean sphereVisible(ByteBuffer b, int gem) {
+		return b.getInt(ImageStateVisible + gem * ImageStateStride) != 0;
+	}
+
+	static boolean pointerValid(ByteBuffer b, int gem) {
+		return b.getInt(PointerValid + gem * PointerStride) != 0;
+	}
+
+	static float pointerX(ByteBuffer b, int gem) {
+		return b.getFloat(PointerX + gem * PointerStride);
+	}
+
+	static float pointerY(ByteBuffer b, int gem) {
+		return b.getFloat(PointerY + gem * PointerStride);
+	}
+
+	static boolean sphereTracking(ByteBuffer b, int gem) {
+		return b.getInt(SphereTracking + gem * SphereStride) != 0;
+	}
+
+	static boolean positionPointerValid(ByteBuffer b, int gem) {
+		return b.getInt(PositionPointerValid + gem * PositionPointerStride) != 0;
+	}
+
+	static float positionPointerX(ByteBuffer b, int gem) {
+		return b.getFloat(PositionPointerX + gem * PositionPointerStride);
+	}
+
+	static float positionPointerY(ByteBuffer b, int gem) {
+		return b.getFloat(PositionPointerY + gem * PositionPointerStride);
+	}
+}
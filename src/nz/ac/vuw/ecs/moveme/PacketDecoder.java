@@ -0,0 +1,49 @@
+/*
+ * Java Move.Me bindings.
+ *
+ * Copyright (C) 2013  Roman Klapaukh
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+
+package nz.ac.vuw.ecs.moveme;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Turns a packet from a particular server version into the version 1 layout the client understands. A decoder for a newer server can either
+ * rewrite the packet, or return it unchanged if the parts the client reads did not move. Decoders are registered with a
+ * {@link PacketDecoderRegistry}.
+ */
+public interface PacketDecoder {
+
+	/**
+	 * A decoder for packets that are already in the version 1 layout
+	 */
+	public static final PacketDecoder VERSION_1 = new PacketDecoder() {
+		public ByteBuffer decode(ByteBuffer packet) {
+			return packet;
+		}
+	};
+
+	/**
+	 * Convert a packet. Called on the receive thread for every packet with a matching key, so it should not allocate.
+	 *
+	 * @param packet
+	 *            The packet as received, with absolute offsets starting at 0
+	 * @return The packet in the version 1 layout with the same payload code, or null to drop it
+	 */
+	public ByteBuffer decode(ByteBuffer packet);
+}
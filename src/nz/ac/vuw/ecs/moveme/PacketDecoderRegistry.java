@@ -0,0 +1,193 @@
+/*
+ * Java Move.Me bindings.
+ *
+ * Copyright (C) 2013  Roman Klapaukh
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+
+package nz.ac.vuw.ecs.moveme;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * The decoders a client uses, keyed by packet magic, server version and payload code. A new registry knows how to read version 1 packets. The
+ * client caches the decoder for each payload code, so registering a decoder only takes effect on the next connect.
+ *
+ * Packets without a decoder are counted per key rather than silently dropped, and the first one of each kind is reported on standard error.
+ */
+public class PacketDecoderRegistry {
+
+	private static class Key {
+		final int magic;
+		final int version;
+		final int payloadCode;
+
+		Key(int magic, int version, int payloadCode) {
+			this.magic = magic;
+			this.version = version;
+			this.payloadCode = payloadCode;
+		}
+
+		@Override
+		public boolean equals(Object o) {
+			if (!(o instanceof Key)) {
+				return false;
+			}
+			Key k = (Key) o;
+			return magic == k.magic && version == k.version && payloadCode == k.payloadCode;
+		}
+
+		@Override
+		public int hashCode() {
+			return (magic * 31 + version) * 31 + payloadCode;
+		}
+
+		@Override
+		public String toString() {
+			return String.format("magic %08x version %d payload code %d", magic, version, payloadCode);
+		}
+	}
+
+	private static final int MaxUnknownKinds = 64;
+
+	private final ConcurrentHashMap<Key, PacketDecoder> decoders;
+	private final ConcurrentHashMap<Key, AtomicLong> unknown;
+	private final AtomicLong unknownCount;
+
+	public PacketDecoderRegistry() {
+		decoders = new ConcurrentHashMap<Key, PacketDecoder>();
+		unknown = new ConcurrentHashMap<Key, AtomicLong>();
+		unknownCount = new AtomicLong();
+		register(PSMoveClient.PSMoveServerPacketMagic, 1, PSMoveClient.PSMoveServerPacketCodeStandardState, PacketDecoder.VERSION_1);
+		register(PSMoveClient.PSMoveServerPacketMagic, 1, PSMoveClient.PSMoveServerPacketCodeCameraFrameSlice, PacketDecoder.VERSION_1);
+		register(PSMoveClient.PSMoveServerPacketMagic, 1, PSMoveClient.PSMoveServerPacketCodeCameraFrameState, PacketDecoder.VERSION_1);
+	}
+
+	/**
+	 * Register a decoder, replacing any existing one for the same key
+	 *
+	 * @param magic
+	 *            Packet magic number
+	 * @param version
+	 *            Server version
+	 * @param payloadCode
+	 *            Payload code
+	 * @param decoder
+	 *            The decoder to use for matching packets
+	 */
+	public void register(int magic, int version, int payloadCode, PacketDecoder decoder) {
+		if (decoder == null) {
+			throw new IllegalArgumentException("Decoder cannot be null");
+		}
+		decoders.put(new Key(magic, version, payloadCode), decoder);
+	}
+
+	/**
+	 * Remove a decoder
+	 *
+	 * @param magic
+	 *            Packet magic number
+	 * @param version
+	 *            Server version
+	 * @param payloadCode
+	 *            Payload code
+	 */
+	public void unregister(int magic, int version, int payloadCode) {
+		decoders.remove(new Key(magic, version, payloadCode));
+	}
+
+	/**
+	 * Find the decoder for a packet
+	 *
+	 * @param magic
+	 *            Packet magic number
+	 * @param version
+	 *            Server version
+	 * @param payloadCode
+	 *            Payload code
+	 * @return The decoder, or null if there is none
+	 */
+	public PacketDecoder lookup(int magic, int version, int payloadCode) {
+		return decoders.get(new Key(magic, version, payloadCode));
+	}
+
+	/**
+	 * @return The total number of packets received that had no decoder
+	 */
+	public long getUnknownCount() {
+		return unknownCount.get();
+	}
+
+	/**
+	 * Get the number of packets that had no decoder, for each kind of packet
+	 *
+	 * @return A description of each unknown kind of packet and how many were received
+	 */
+	public Map<String, Long> getUnknownCounts() {
+		Map<String, Long> counts = new HashMap<String, Long>();
+		for (Map.Entry<Key, AtomicLong> e : unknown.entrySet()) {
+			counts.put(e.getKey().toString(), e.getValue().get());
+		}
+		return counts;
+	}
+
+	/**
+	 * Get the counter for packets of one kind that have no decoder, reporting the kind the first time it is seen. The client keeps the counter
+	 * for the session, so later packets of the same kind are counted without looking them up again.
+	 *
+	 * @param magic
+	 *            Packet magic number
+	 * @param version
+	 *            Server version
+	 * @param payloadCode
+	 *            Payload code
+	 * @return The counter, or null if so many kinds have been seen that only the total is kept
+	 */
+	AtomicLong unknownCounter(int magic, int version, int payloadCode) {
+		Key key = new Key(magic, version, payloadCode);
+		AtomicLong count = unknown.get(key);
+		if (count == null && unknown.size() >= MaxUnknownKinds) {
+			// Probably noise rather than a server, so only keep the total
+			return null;
+		}
+		if (count == null) {
+			count = new AtomicLong();
+			AtomicLong existing = unknown.putIfAbsent(key, count);
+			if (existing != null) {
+				count = existing;
+			} else {
+				System.err.println("No decoder for packet with " + key);
+			}
+		}
+		return count;
+	}
+
+	/**
+	 * Count a packet that had no decoder
+	 *
+	 * @param kind
+	 *            The counter for its kind from {@link #unknownCounter(int, int, int)}, or null to only count the total
+	 */
+	void countUnknown(AtomicLong kind) {
+		unknownCount.incrementAndGet();
+		if (kind != null) {
+			kind.incrementAndGet();
+		}
+	}
+}
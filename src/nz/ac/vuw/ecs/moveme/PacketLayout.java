@@ -0,0 +1,226 @@
+/*
+ * Java Move.Me bindings.
+ *
+ * Copyright (C) 2013  Roman Klapaukh
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+
+package nz.ac.vuw.ecs.moveme;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * The layout of a C struct sent by the Move.Me server. Fields are declared in order and their offsets are worked out with the usual C rules: each
+ * field is aligned to its own size (or to the largest member of a nested struct) and the struct is padded to a multiple of its alignment. Layouts
+ * are only used when classes are initialised, to compute the offsets the decoders read at.
+ */
+final class PacketLayout {
+
+	private static class Field {
+		final int offset;
+		final int size;
+		final int count;
+		final PacketLayout struct;
+
+		Field(int offset, int size, int count, PacketLayout struct) {
+			this.offset = offset;
+			this.size = size;
+			this.count = count;
+			this.struct = struct;
+		}
+	}
+
+	private final String name;
+	private final Map<String, Field> fields;
+	private final int size;
+	private final int alignment;
+
+	private PacketLayout(String name, Map<String, Field> fields, int size, int alignment) {
+		this.name = name;
+		this.fields = fields;
+		this.size = size;
+		this.alignment = alignment;
+	}
+
+	/**
+	 * Start declaring a struct
+	 *
+	 * @param name
+	 *            Name of the struct, used in error messages
+	 * @return A builder to declare the fields with
+	 */
+	static Builder struct(String name) {
+		return new Builder(name);
+	}
+
+	/**
+	 * @return The size of the struct in bytes, including trailing padding
+	 */
+	int size() {
+		return size;
+	}
+
+	/**
+	 * Get the offset of a field from the start of the struct. A dotted path such as "status.code" gives the offset of a field of the first element
+	 * of a nested struct.
+	 *
+	 * @param path
+	 *            Name of the field
+	 * @return Offset in bytes
+	 */
+	int offsetOf(String path) {
+		int dot = path.indexOf('.');
+		Field f = field(dot < 0 ? path : path.substring(0, dot));
+		if (dot < 0) {
+			return f.offset;
+		}
+		if (f.struct == null) {
+			throw new IllegalArgumentException(name + "." + path.substring(0, dot) + " is not a struct");
+		}
+		return f.offset + f.struct.offsetOf(path.substring(dot + 1));
+	}
+
+	/**
+	 * Get the offset of the first byte after a field
+	 *
+	 * @param field
+	 *            Name of the field
+	 * @return Offset in bytes
+	 */
+	int endOf(String field) {
+		Field f = field(field);
+		return f.offset + f.size * f.count;
+	}
+
+	/**
+	 * Get the distance between two elements of an array field
+	 *
+	 * @param field
+	 *            Name of the field
+	 * @return Size of one element in bytes
+	 */
+	int strideOf(String field) {
+		return field(field).size;
+	}
+
+	/**
+	 * Get the number of elements in a field
+	 *
+	 * @param field
+	 *            Name of the field
+	 * @return 1 for a single value, otherwise the array length
+	 */
+	int countOf(String field) {
+		return field(field).count;
+	}
+
+	private Field field(String field) {
+		Field f = fields.get(field);
+		if (f == null) {
+			throw new IllegalArgumentException(name + " has no field " + field);
+		}
+		return f;
+	}
+
+	@Override
+	public String toString() {
+		StringBuilder sb = new StringBuilder();
+		sb.append(name).append(" (").append(size).append(" bytes)\n");
+		for (Map.Entry<String, Field> e : fields.entrySet()) {
+			Field f = e.getValue();
+			sb.append(String.format("  %5d %s", f.offset, e.getKey()));
+			if (f.count > 1) {
+				sb.append('[').append(f.count).append(']');
+			}
+			if (f.struct != null) {
+				sb.append(" : ").append(f.struct.name);
+			}
+			sb.append('\n');
+		}
+		return sb.toString();
+	}
+
+	static class Builder {
+
+		private final String name;
+		private final Map<String, Field> fields;
+		private int offset;
+		private int alignment;
+
+		private Builder(String name) {
+			this.name = name;
+			this.fields = new LinkedHashMap<String, Field>();
+			this.offset = 0;
+			this.alignment = 1;
+		}
+
+		Builder int16(String field) {
+			return add(field, 2, 2, 1, null);
+		}
+
+		Builder int16(String field, int count) {
+			return add(field, 2, 2, count, null);
+		}
+
+		Builder int32(String field) {
+			return add(field, 4, 4, 1, null);
+		}
+
+		Builder int32(String field, int count) {
+			return add(field, 4, 4, count, null);
+		}
+
+		Builder int64(String field) {
+			return add(field, 8, 8, 1, null);
+		}
+
+		Builder float32(String field) {
+			return add(field, 4, 4, 1, null);
+		}
+
+		Builder float32(String field, int count) {
+			return add(field, 4, 4, count, null);
+		}
+
+		Builder struct(String field, PacketLayout struct) {
+			return add(field, struct.size, struct.alignment, 1, struct);
+		}
+
+		Builder struct(String field, PacketLayout struct, int count) {
+			return add(field, struct.size, struct.alignment, count, struct);
+		}
+
+		PacketLayout build() {
+			return new PacketLayout(name, fields, align(offset, alignment), alignment);
+		}
+
+		private Builder add(String field, int size, int align, int count, PacketLayout struct) {
+			if (fields.containsKey(field)) {
+				throw new IllegalArgumentException(name + " already has a field " + field);
+			}
+			offset = align(offset, align);
+			fields.put(field, new Field(offset, size, count, struct));
+			offset += size * count;
+			alignment = Math.max(alignment, align);
+			return this;
+		}
+
+		private static int align(int offset, int align) {
+			return (offset + align - 1) / align * align;
+		}
+	}
+}
@@ -0,0 +1,94 @@
+/*
+ * Java Move.Me bindings.
+ *
+ * Copyright (C) 2013  Roman Klapaukh
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+
+package nz.ac.vuw.ecs.moveme;
+
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A repeating task on a client's scheduler that is started when there is work and stopped when there is none. A task that has died, or whose
+ * scheduler was shut down by the client closing, is started again on the client's current scheduler.
+ *
+ * This class is not thread safe. The owner calls it while holding its own lock, and holds the same lock while its work runs, so work added while
+ * a run is deciding to stop always starts the task again.
+ */
+final class PeriodicTask {
+
+	private final PSMoveClient client;
+	private final Runnable work;
+	private final boolean fixedRate;
+	private ScheduledExecutorService scheduler;
+	private ScheduledFuture<?> future;
+
+	/**
+	 * @param client
+	 *            The client whose scheduler runs the work
+	 * @param work
+	 *            The work to run
+	 * @param fixedRate
+	 *            True to run at a fixed rate, false to wait a fixed delay between runs
+	 */
+	PeriodicTask(PSMoveClient client, Runnable work, boolean fixedRate) {
+		this.client = client;
+		this.work = work;
+		this.fixedRate = fixedRate;
+	}
+
+	/**
+	 * Start running the work, unless it is already running
+	 *
+	 * @param initialMillis
+	 *            Time before the first run in milliseconds
+	 * @param periodMillis
+	 *            Time between runs in milliseconds
+	 */
+	void start(long initialMillis, long periodMillis) {
+		if (isRunning()) {
+			return;
+		}
+		scheduler = client.getScheduler();
+		if (fixedRate) {
+			future = scheduler.scheduleAtFixedRate(work, initialMillis, periodMillis, TimeUnit.MILLISECONDS);
+		} else {
+			future = scheduler.scheduleWithFixedDelay(work, initialMillis, periodMillis, TimeUnit.MILLISECONDS);
+		}
+	}
+
+	/**
+	 * Stop running the work. A run that is in progress finishes.
+	 */
+	void stop() {
+		if (future != null) {
+			future.cancel(false);
+			future = null;
+			scheduler = null;
+		}
+	}
+
+	/**
+	 * @return True if the work is scheduled to run again
+	 */
+	boolean isRunning() {
+		// Shutting a scheduler down does not complete its futures
+		return future != null && !future.isDone() && !scheduler.isShutdown();
+	}
+}
@@ -0,0 +1,107 @@
+/*
+ * Java Move.Me bindings.
+ *
+ * Copyright (C) 2013  Roman Klapaukh
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+
+package nz.ac.vuw.ecs.moveme;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.DatagramChannel;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * How the receive thread waits for the next state packet from the Move.Me server. The blocking strategy is the cheapest on CPU, the spinning
+ * strategies trade a core for lower and more predictable wakeup latency.
+ */
+public enum ReceiveStrategy {
+
+	/**
+	 * Block in the socket until a packet arrives. Uses no CPU while waiting, but the thread wakeup adds jitter.
+	 */
+	BLOCKING(true) {
+		@Override
+		void receive(DatagramChannel channel, ByteBuffer buffer) throws IOException {
+			channel.receive(buffer);
+		}
+	},
+
+	/**
+	 * Poll a non-blocking socket in a tight loop. Lowest latency, but keeps one core fully busy for as long as the client is connected.
+	 */
+	BUSY_SPIN(false) {
+		@Override
+		void receive(DatagramChannel channel, ByteBuffer buffer) throws IOException {
+			while (channel.receive(buffer) == null) {
+				// spin
+			}
+		}
+	},
+
+	/**
+	 * Poll a non-blocking socket, first spinning, then yielding and finally parking for short periods while no packets arrive. A compromise between
+	 * the other two strategies.
+	 */
+	SPIN_YIELD(false) {
+		@Override
+		void receive(DatagramChannel channel, ByteBuffer buffer) throws IOException {
+			int idle = 0;
+			while (channel.receive(buffer) == null) {
+				if (idle < SPIN_TRIES) {
+					idle++;
+				} else if (idle < SPIN_TRIES + YIELD_TRIES) {
+					idle++;
+					Thread.yield();
+				} else {
+					LockSupport.parkNanos(PARK_NANOS);
+				}
+			}
+		}
+	};
+
+	private static final int SPIN_TRIES = 1000;
+	private static final int YIELD_TRIES = 100;
+	private static final long PARK_NANOS = 50000;
+
+	private final boolean blocking;
+
+	private ReceiveStrategy(boolean blocking) {
+		this.blocking = blocking;
+	}
+
+	/**
+	 * Whether the channel should be put in blocking mode for this strategy
+	 *
+	 * @return True if the channel should block on receive
+	 */
+	boolean isBlocking() {
+		return blocking;
+	}
+
+	/**
+	 * Wait for the next packet and read it into the buffer
+	 *
+	 * @param channel
+	 *            Channel to read from. Must be configured as {@link #isBlocking()} requires
+	 * @param buffer
+	 *            Buffer to read the packet into
+	 * @throws IOException
+	 *             If the channel fails or is closed while waiting
+	 */
+	abstract void receive(DatagramChannel channel, ByteBuffer buffer) throws IOException;
+}
@@ -0,0 +1,263 @@
+/*
+ * Java Move.Me bindings.
+ *
+ * Copyright (C) 2013  Roman Klapaukh
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+
+package nz.ac.vuw.ecs.moveme;
+
+import java.nio.ByteBuffer;
+
+/**
+ * The datagram format shared by {@link StateRelay} and {@link StateRelayClient}. Each datagram carries the state of one controller:
+ *
+ * <pre>
+ * int   magic
+ * byte  version
+ * byte  flags          (FlagKeyframe if every field is present)
+ * short controller
+ * int   session        (picked at random by each relay, so a receiver can tell when the relay restarted)
+ * int   sequence       (per controller, increases by one per datagram)
+ * int   packetIndex    (of the Move.Me packet the state came from)
+ * short fields         (which of the fields below follow, in this order)
+ *       FieldStatus:          byte connected, byte sphereVisible, int code, long flags
+ *       FieldButtons:         short buttons, short trigger
+ *       FieldPosition:        4 floats
+ *       FieldVelocity:        4 floats
+ *       FieldOrientation:     4 floats
+ *       FieldPointer:         byte valid, 2 floats
+ *       FieldPositionPointer: byte valid, 2 floats
+ *       FieldTimestamp:       long
+ * </pre>
+ *
+ * All values are big endian.
+ */
+class RelayProtocol {
+
+	static final int Magic = 0x4d4f5645;
+	static final byte Version = 2;
+	static final int MaxDatagramSize = 128;
+
+	static final byte FlagKeyframe = 0x1;
+
+	static final int FieldStatus = 1 << 0;
+	static final int FieldButtons = 1 << 1;
+	static final int FieldPosition = 1 << 2;
+	static final int FieldVelocity = 1 << 3;
+	static final int FieldOrientation = 1 << 4;
+	static final int FieldPointer = 1 << 5;
+	static final int FieldPositionPointer = 1 << 6;
+	static final int FieldTimestamp = 1 << 7;
+	static final int AllFields = (1 << 8) - 1;
+
+	private RelayProtocol() {
+	}
+
+	/**
+	 * Work out which fields differ between two states of the same controller
+	 *
+	 * @param a
+	 *            One state, may be null
+	 * @param b
+	 *            The other state
+	 * @return The mask of changed fields. All fields if a is null
+	 */
+	static int changedFields(ControllerState a, ControllerState b) {
+		if (a == null) {
+			return AllFields;
+		}
+		int fields = 0;
+		if (a.isConnected() != b.isConnected() || a.isSphereVisible() != b.isSphereVisible() || a.getStatusCode() != b.getStatusCode()
+				|| a.getStatusFlags() != b.getStatusFlags()) {
+			fields |= FieldStatus;
+		}
+		if (a.getButtons() != b.getButtons() || a.getTrigger() != b.getTrigger()) {
+			fields |= FieldButtons;
+		}
+		if (!same(a.position(), b.position())) {
+			fields |= FieldPosition;
+		}
+		if (!same(a.velocity(), b.velocity())) {
+			fields |= FieldVelocity;
+		}
+		if (!same(a.orientation(), b.orientation())) {
+			fields |= FieldOrientation;
+		}
+		if (a.isPointerValid() != b.isPointerValid() || !same(a.getPointerX(), b.getPointerX()) || !same(a.getPointerY(), b.getPointerY())) {
+			fields |= FieldPointer;
+		}
+		if (a.isPositionPointerValid() != b.isPositionPointerValid() || !same(a.getPositionPointerX(), b.getPositionPointerX())
+				|| !same(a.getPositionPointerY(), b.getPositionPointerY())) {
+			fields |= FieldPositionPointer;
+		}
+		if (a.getTimestamp() != b.getTimestamp()) {
+			fields |= FieldTimestamp;
+		}
+		return fields;
+	}
+
+	/**
+	 * Write one datagram
+	 *
+	 * @param b
+	 *            Buffer to write into, starting at its position
+	 * @param state
+	 *            The state to send
+	 * @param session
+	 *            The session of the relay
+	 * @param sequence
+	 *            The sequence number for the controller
+	 * @param fields
+	 *            Which fields to include
+	 */
+	static void encode(ByteBuffer b, ControllerState state, int session, int sequence, int fields) {
+		b.putInt(Magic);
+		b.put(Version);
+		b.put(fields == AllFields ? FlagKeyframe : 0);
+		b.putShort((short) state.getController());
+		b.putInt(session);
+		b.putInt(sequence);
+		b.putInt(state.getPacketIndex());
+		b.putShort((short) fields);
+		if ((fields & FieldStatus) != 0) {
+			b.put((byte) (state.isConnected() ? 1 : 0));
+			b.put((byte) (state.isSphereVisible() ? 1 : 0));
+			b.putInt(state.getStatusCode());
+			b.putLong(state.getStatusFlags());
+		}
+		if ((fields & FieldButtons) != 0) {
+			b.putShort((short) state.getButtons());
+			b.putShort((short) state.getTrigger());
+		}
+		if ((fields & FieldPosition) != 0) {
+			putFloats(b, state.position());
+		}
+		if ((fields & FieldVelocity) != 0) {
+			putFloats(b, state.velocity());
+		}
+		if ((fields & FieldOrientation) != 0) {
+			putFloats(b, state.orientation());
+		}
+		if ((fields & FieldPointer) != 0) {
+			b.put((byte) (state.isPointerValid() ? 1 : 0));
+			b.putFloat(state.getPointerX());
+			b.putFloat(state.getPointerY());
+		}
+		if ((fields & FieldPositionPointer) != 0) {
+			b.put((byte) (state.isPositionPointerValid() ? 1 : 0));
+			b.putFloat(state.getPositionPointerX());
+			b.putFloat(state.getPositionPointerY());
+		}
+		if ((fields & FieldTimestamp) != 0) {
+			b.putLong(state.getTimestamp());
+		}
+	}
+
+	/**
+	 * Read the fields of one datagram, after the header, on top of a previous state
+	 *
+	 * @param b
+	 *            Buffer positioned at the start of the fields
+	 * @param controller
+	 *            The controller from the header
+	 * @param packetIndex
+	 *            The packet index from the header
+	 * @param fields
+	 *            The field mask from the header
+	 * @param previous
+	 *            The last state of the controller. Must not be null unless every field is present
+	 * @return The new state
+	 */
+	static ControllerState decode(ByteBuffer b, int controller, int packetIndex, int fields, ControllerState previous) {
+		boolean connected, sphereVisible, pointerValid, positionPointerValid;
+		int code, buttons, trigger;
+		long flags, timestamp;
+		float[] position, velocity, orientation;
+		float pointerX, pointerY, positionPointerX, positionPointerY;
+
+		if ((fields & FieldStatus) != 0) {
+			connected = b.get() != 0;
+			sphereVisible = b.get() != 0;
+			code = b.getInt();
+			flags = b.getLong();
+		} else {
+			connected = previous.isConnected();
+			sphereVisible = previous.isSphereVisible();
+			code = previous.getStatusCode();
+			flags = previous.getStatusFlags();
+		}
+		if ((fields & FieldButtons) != 0) {
+			buttons = b.getShort();
+			trigger = b.getShort();
+		} else {
+			buttons = previous.getButtons();
+			trigger = previous.getTrigger();
+		}
+		position = (fields & FieldPosition) != 0 ? getFloats(b) : previous.position();
+		velocity = (fields & FieldVelocity) != 0 ? getFloats(b) : previous.velocity();
+		orientation = (fields & FieldOrientation) != 0 ? getFloats(b) : previous.orientation();
+		if ((fields & FieldPointer) != 0) {
+			pointerValid = b.get() != 0;
+			pointerX = b.getFloat();
+			pointerY = b.getFloat();
+		} else {
+			pointerValid = previous.isPointerValid();
+			pointerX = previous.getPointerX();
+			pointerY = previous.getPointerY();
+		}
+		if ((fields & FieldPositionPointer) != 0) {
+			positionPointerValid = b.get() != 0;
+			positionPointerX = b.getFloat();
+			positionPointerY = b.getFloat();
+		} else {
+			positionPointerValid = previous.isPositionPointerValid();
+			positionPointerX = previous.getPositionPointerX();
+			positionPointerY = previous.getPositionPointerY();
+		}
+		timestamp = (fields & FieldTimestamp) != 0 ? b.getLong() : previous.getTimestamp();
+
+		return new ControllerState(controller, packetIndex, connected, code, flags, position, velocity, orientation, buttons, trigger, timestamp,
+				sphereVisible, pointerValid, pointerX, pointerY, positionPointerValid, positionPointerX, positionPointerY);
+	}
+
+	private static void putFloats(ByteBuffer b, float[] values) {
+		for (int i = 0; i < 4; i++) {
+			b.putFloat(values[i]);
+		}
+	}
+
+	private static float[] getFloats(ByteBuffer b) {
+		float[] values = new float[4];
+		for (int i = 0; i < 4; i++) {
+			values[i] = b.getFloat();
+		}
+		return values;
+	}
+
+	private static boolean same(float a, float b) {
+		return Float.floatToIntBits(a) == Float.floatToIntBits(b);
+	}
+
+	private static boolean same(float[] a, float[] b) {
+		for (int i = 0; i < 4; i++) {
+			if (!same(a[i], b[i])) {
+				return false;
+			}
+		}
+		return true;
+	}
+}
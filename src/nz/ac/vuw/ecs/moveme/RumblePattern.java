@@ -0,0 +1,208 @@
+/*
+ * Java Move.Me bindings.
+ *
+ * Copyright (C) 2013  Roman Klapaukh
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+
+package nz.ac.vuw.ecs.moveme;
+
+/**
+ * A rumble level that changes over time, played by a {@link RumbleScheduler}. Extend this class for custom patterns, or use the factory methods for
+ * the common ones. Patterns hold no playback state, so one pattern can be played on several controllers at once.
+ */
+public abstract class RumblePattern {
+
+	/**
+	 * Get the rumble level at a point in the pattern
+	 *
+	 * @param elapsedMillis
+	 *            Time since the pattern started, from 0 up to but not including the duration
+	 * @return Rumble value (0 - 255)
+	 */
+	public abstract int level(long elapsedMillis);
+
+	/**
+	 * @return How long the pattern lasts in milliseconds. The rumble is turned off when it ends.
+	 */
+	public abstract long getDuration();
+
+	/**
+	 * A constant rumble
+	 *
+	 * @param level
+	 *            Rumble value (0 - 255)
+	 * @param millis
+	 *            How long to rumble for
+	 * @return The pattern
+	 */
+	public static RumblePattern constant(final int level, final long millis) {
+		checkLevel(level);
+		return new RumblePattern() {
+			public int level(long elapsedMillis) {
+				return level;
+			}
+
+			public long getDuration() {
+				return millis;
+			}
+		};
+	}
+
+	/**
+	 * A train of equal pulses
+	 *
+	 * @param level
+	 *            Rumble value while a pulse is on (0 - 255)
+	 * @param onMillis
+	 *            Length of each pulse
+	 * @param offMillis
+	 *            Gap between pulses
+	 * @param count
+	 *            Number of pulses
+	 * @return The pattern
+	 */
+	public static RumblePattern pulses(final int level, final long onMillis, final long offMillis, final int count) {
+		checkLevel(level);
+		if (onMillis <= 0 || offMillis < 0 || count < 1) {
+			throw new IllegalArgumentException("Invalid pulse train");
+		}
+		return new RumblePattern() {
+			public int level(long elapsedMillis) {
+				return elapsedMillis % (onMillis + offMillis) < onMillis ? level : 0;
+			}
+
+			public long getDuration() {
+				// No trailing gap after the last pulse
+				return count * (onMillis + offMillis) - offMillis;
+			}
+		};
+	}
+
+	/**
+	 * A linear change from one level to another
+	 *
+	 * @param from
+	 *            Starting rumble value (0 - 255)
+	 * @param to
+	 *            Final rumble value (0 - 255)
+	 * @param millis
+	 *            Length of the ramp
+	 * @return The pattern
+	 */
+	public static RumblePattern ramp(final int from, final int to, final long millis) {
+		checkLevel(from);
+		checkLevel(to);
+		return new RumblePattern() {
+			public int level(long elapsedMillis) {
+				return interpolate(from, to, elapsedMillis, millis);
+			}
+
+			public long getDuration() {
+				return millis;
+			}
+		};
+	}
+
+	/**
+	 * An attack, decay, sustain, release envelope
+	 *
+	 * @param peak
+	 *            Rumble value at the end of the attack (0 - 255)
+	 * @param attackMillis
+	 *            Time to rise from off to the peak
+	 * @param decayMillis
+	 *            Time to fall from the peak to the sustain level
+	 * @param sustain
+	 *            Rumble value held after the decay (0 - 255)
+	 * @param sustainMillis
+	 *            How long the sustain level is held
+	 * @param releaseMillis
+	 *            Time to fall from the sustain level to off
+	 * @return The pattern
+	 */
+	public static RumblePattern adsr(final int peak, final long attackMillis, final long decayMillis, final int sustain, final long sustainMillis,
+			final long releaseMillis) {
+		checkLevel(peak);
+		checkLevel(sustain);
+		if (attackMillis < 0 || decayMillis < 0 || sustainMillis < 0 || releaseMillis < 0) {
+			throw new IllegalArgumentException("Envelope times cannot be negative");
+		}
+		return new RumblePattern() {
+			public int level(long t) {
+				if (t < attackMillis) {
+					return interpolate(0, peak, t, attackMillis);
+				}
+				t -= attackMillis;
+				if (t < decayMillis) {
+					return interpolate(peak, sustain, t, decayMillis);
+				}
+				t -= decayMillis;
+				if (t < sustainMillis) {
+					return sustain;
+				}
+				return interpolate(sustain, 0, t - sustainMillis, releaseMillis);
+			}
+
+			public long getDuration() {
+				return attackMillis + decayMillis + sustainMillis + releaseMillis;
+			}
+		};
+	}
+
+	/**
+	 * Play several patterns one after another
+	 *
+	 * @param patterns
+	 *            The patterns in the order to play them
+	 * @return The pattern
+	 */
+	public static RumblePattern sequence(final RumblePattern... patterns) {
+		long total = 0;
+		for (RumblePattern p : patterns) {
+			total += p.getDuration();
+		}
+		final long duration = total;
+		return new RumblePattern() {
+			public int level(long elapsedMillis) {
+				for (RumblePattern p : patterns) {
+					if (elapsedMillis < p.getDuration()) {
+						return p.level(elapsedMillis);
+					}
+					elapsedMillis -= p.getDuration();
+				}
+				return 0;
+			}
+
+			public long getDuration() {
+				return duration;
+			}
+		};
+	}
+
+	private static int interpolate(int from, int to, long t, long length) {
+		if (length <= 0) {
+			return to;
+		}
+		return from + (int) ((to - from) * t / length);
+	}
+
+	private static void checkLevel(int level) {
+		if (level < 0 || level > 255) {
+			throw new IllegalArgumentException("Rumble must be between 0 and 255");
+		}
+	}
+}
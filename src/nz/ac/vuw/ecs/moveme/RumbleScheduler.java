@@ -0,0 +1,197 @@
+/*
+ * Java Move.Me bindings.
+ *
+ * Copyright (C) 2013  Roman Klapaukh
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+
+package nz.ac.vuw.ecs.moveme;
+
+import java.io.IOException;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * Plays {@link RumblePattern}s on the controllers of a {@link PSMoveClient}. Every controller's pattern is sampled by one task on the client's
+ * scheduler, which only runs while something is playing, and a rumble command is only sent when a controller's level changes. Playing a pattern on
+ * a controller replaces whatever was playing on it.
+ */
+public class RumbleScheduler implements Runnable {
+
+	private static class Playing {
+		final RumblePattern pattern;
+		final long start;
+
+		Playing(RumblePattern pattern, long start) {
+			this.pattern = pattern;
+			this.start = start;
+		}
+	}
+
+	private final PSMoveClient client;
+	private final AtomicReferenceArray<Playing> playing;
+	private final int[] sent;
+	private volatile long periodMillis;
+	private final PeriodicTask task;
+
+	/**
+	 * Create a scheduler that samples patterns every 10ms
+	 *
+	 * @param client
+	 *            The client to send rumble commands through
+	 */
+	public RumbleScheduler(PSMoveClient client) {
+		this.client = client;
+		this.playing = new AtomicReferenceArray<Playing>(PSMoveClient.PSMoveServerMaxCons);
+		this.sent = new int[PSMoveClient.PSMoveServerMaxCons];
+		this.periodMillis = 10;
+		this.task = new PeriodicTask(client, this, true);
+	}
+
+	/**
+	 * Set how often patterns are sampled. Takes effect the next time playback starts.
+	 *
+	 * @param millis
+	 *            Time between samples in milliseconds
+	 */
+	public void setPeriodMillis(long millis) {
+		if (millis < 1) {
+			throw new IllegalArgumentException("Period must be at least 1ms");
+		}
+		this.periodMillis = millis;
+	}
+
+	/**
+	 * Start playing a pattern on a controller, replacing any pattern already playing on it
+	 *
+	 * @param controller
+	 *            Controller to rumble (0 - 3)
+	 * @param pattern
+	 *            The pattern to play
+	 */
+	public void play(int controller, RumblePattern pattern) {
+		checkController(controller);
+		if (pattern == null) {
+			throw new IllegalArgumentException("Pattern cannot be null");
+		}
+		playing.set(controller, new Playing(pattern, System.nanoTime()));
+		schedule();
+	}
+
+	/**
+	 * Stop the pattern playing on a controller and turn its rumble off
+	 *
+	 * @param controller
+	 *            Controller to stop (0 - 3)
+	 */
+	public void stop(int controller) {
+		checkController(controller);
+		playing.set(controller, null);
+		schedule();
+	}
+
+	/**
+	 * @param controller
+	 *            Controller to check (0 - 3)
+	 * @return True if a pattern is playing on the controller
+	 */
+	public boolean isPlaying(int controller) {
+		checkController(controller);
+		return playing.get(controller) != null;
+	}
+
+	/**
+	 * Stop all patterns and turn the rumble off on every controller that was rumbling
+	 */
+	public synchronized void close() {
+		for (int i = 0; i < sent.length; i++) {
+			playing.set(i, null);
+		}
+		task.stop();
+		for (int i = 0; i < sent.length; i++) {
+			send(i, 0);
+		}
+	}
+
+	public synchronized void run() {
+		long now = System.nanoTime();
+		boolean active = false;
+		for (int i = 0; i < sent.length; i++) {
+			Playing p = playing.get(i);
+			int level = 0;
+			boolean going = false;
+			if (p != null) {
+				long elapsed = (now - p.start) / 1000000L;
+				try {
+					if (elapsed < p.pattern.getDuration()) {
+						level = Math.max(0, Math.min(255, p.pattern.level(elapsed)));
+						going = true;
+					} else {
+						// A newer pattern may have replaced this one since it was read
+						playing.compareAndSet(i, p, null);
+					}
+				} catch (RuntimeException e) {
+					// A failing pattern must not stop the patterns on the other controllers
+					e.printStackTrace();
+					playing.compareAndSet(i, p, null);
+					level = 0;
+				}
+			}
+			if (!send(i, level) && p != null) {
+				// Retrying every tick on a broken or closed connection would only repeat the error
+				playing.compareAndSet(i, p, null);
+				going = false;
+			}
+			active |= going;
+		}
+		if (!active) {
+			task.stop();
+		}
+	}
+
+	private synchronized void schedule() {
+		task.start(0, periodMillis);
+	}
+
+	/**
+	 * Send a level to a controller if it has changed
+	 *
+	 * @return False if the command could not be sent
+	 */
+	private boolean send(int controller, int level) {
+		if (level == sent[controller]) {
+			return true;
+		}
+		try {
+			client.setRumble(controller, level);
+			sent[controller] = level;
+			return true;
+		} catch (IOException e) {
+			e.printStackTrace();
+		} catch (RuntimeException e) {
+			// The client may have been closed under us
+			e.printStackTrace();
+		}
+		// Nothing more is sent to the controller until it is given a new level, so a failure is only reported once
+		sent[controller] = 0;
+		return false;
+	}
+
+	private static void checkController(int controller) {
+		if (controller < 0 || controller >= PSMoveClient.PSMoveServerMaxCons) {
+			throw new IllegalArgumentException("No such controller " + controller);
+		}
+	}
+}
@@ -0,0 +1,205 @@
+/*
+ * Java Move.Me bindings.
+ *
+ * Copyright (C) 2013  Roman Klapaukh
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+
+package nz.ac.vuw.ecs.moveme;
+
+import java.io.IOException;
+import java.net.DatagramPacket;
+import java.net.InetSocketAddress;
+import java.net.MulticastSocket;
+import java.net.SocketAddress;
+import java.nio.ByteBuffer;
+import java.util.Random;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Re-broadcasts the decoded controller state of a {@link PSMoveClient} to other machines, so that many consumers can share one Move.Me session.
+ * States are sent in the compact {@link RelayProtocol} format to every registered destination, which may be unicast addresses or a multicast group.
+ * With delta encoding only the fields that changed since the last datagram for a controller are sent, with a full keyframe at a regular interval so
+ * that late joiners and receivers that lost a datagram can catch up. Use {@link StateRelayClient} to receive the states.
+ */
+public class StateRelay implements MoveSubscriber<ControllerState> {
+
+	private final PSMoveClient client;
+	private final MulticastSocket socket;
+	private final CopyOnWriteArrayList<SocketAddress> destinations;
+	private final ByteBuffer buffer;
+	private final DatagramPacket packet;
+	private final ControllerState[] lastSent;
+	private final int session;
+	private final int[] sequence;
+	private final AtomicLong sentCount;
+	private volatile boolean deltaEncoding;
+	private volatile int keyframeInterval;
+	private volatile MoveSubscription subscription;
+
+	/**
+	 * Create a relay for a client. Nothing is sent until {@link #start()} is called.
+	 *
+	 * @param client
+	 *            The client to relay the state of
+	 * @throws IOException
+	 *             If the sending socket cannot be created
+	 */
+	public StateRelay(PSMoveClient client) throws IOException {
+		this.client = client;
+		this.socket = new MulticastSocket();
+		this.destinations = new CopyOnWriteArrayList<SocketAddress>();
+		this.buffer = ByteBuffer.allocate(RelayProtocol.MaxDatagramSize);
+		this.packet = new DatagramPacket(buffer.array(), 0);
+		this.lastSent = new ControllerState[PSMoveClient.PSMoveServerMaxCons];
+		this.session = new Random().nextInt();
+		this.sequence = new int[PSMoveClient.PSMoveServerMaxCons];
+		this.sentCount = new AtomicLong();
+		this.deltaEncoding = true;
+		this.keyframeInterval = 50;
+		this.subscription = null;
+	}
+
+	/**
+	 * Add a destination. This can be the address of a single subscriber or a multicast group.
+	 *
+	 * @param host
+	 *            Host name or address to send to
+	 * @param port
+	 *            Port to send to
+	 */
+	public void addDestination(String host, int port) {
+		addDestination(new InetSocketAddress(host, port));
+	}
+
+	/**
+	 * Add a destination. This can be the address of a single subscriber or a multicast group.
+	 *
+	 * @param address
+	 *            Address to send to
+	 */
+	public void addDestination(SocketAddress address) {
+		destinations.addIfAbsent(address);
+	}
+
+	/**
+	 * Stop sending to a destination
+	 *
+	 * @param address
+	 *            Address to stop sending to
+	 */
+	public void removeDestination(SocketAddress address) {
+		destinations.remove(address);
+	}
+
+	/**
+	 * Set the time to live of multicast datagrams. The default of 1 keeps them on the local network.
+	 *
+	 * @param ttl
+	 *            Time to live (0 - 255)
+	 * @throws IOException
+	 */
+	public void setTimeToLive(int ttl) throws IOException {
+		socket.setTimeToLive(ttl);
+	}
+
+	/**
+	 * Set whether only changed fields are sent
+	 *
+	 * @param delta
+	 *            True to send only changed fields (the default), false to always send every field
+	 */
+	public void setDeltaEncoding(boolean delta) {
+		this.deltaEncoding = delta;
+	}
+
+	/**
+	 * Set how often a full state is sent for each controller when delta encoding is on
+	 *
+	 * @param datagrams
+	 *            Number of datagrams per controller between keyframes
+	 */
+	public void setKeyframeInterval(int datagrams) {
+		if (datagrams < 1) {
+			throw new IllegalArgumentException("Keyframe interval must be at least 1");
+		}
+		this.keyframeInterval = datagrams;
+	}
+
+	/**
+	 * @return The number of datagrams sent so far
+	 */
+	public long getSentCount() {
+		return sentCount.get();
+	}
+
+	/**
+	 * Start relaying states
+	 */
+	public void start() {
+		client.getStatePublisher().subscribe(this);
+	}
+
+	/**
+	 * Stop relaying states and close the socket
+	 */
+	public void close() {
+		MoveSubscription s = subscription;
+		if (s != null) {
+			s.cancel();
+		}
+		socket.close();
+	}
+
+	public void onSubscribe(MoveSubscription subscription) {
+		this.subscription = subscription;
+		subscription.request(Long.MAX_VALUE);
+	}
+
+	public void onNext(ControllerState state) {
+		int controller = state.getController();
+		int seq = ++sequence[controller];
+		int fields = RelayProtocol.AllFields;
+		if (deltaEncoding && seq % keyframeInterval != 0) {
+			fields = RelayProtocol.changedFields(lastSent[controller], state);
+		}
+		lastSent[controller] = state;
+
+		buffer.clear();
+		RelayProtocol.encode(buffer, state, session, seq, fields);
+		packet.setLength(buffer.position());
+		for (SocketAddress destination : destinations) {
+			try {
+				packet.setSocketAddress(destination);
+				socket.send(packet);
+				sentCount.incrementAndGet();
+			} catch (IOException e) {
+				if (socket.isClosed()) {
+					return;
+				}
+				e.printStackTrace();
+			}
+		}
+	}
+
+	public void onError(Throwable throwable) {
+		throwable.printStackTrace();
+	}
+
+	public void onComplete() {
+	}
+}
@@ -0,0 +1,217 @@
+/*
+ * Java Move.Me bindings.
+ *
+ * Copyright (C) 2013  Roman Klapaukh
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+
+package nz.ac.vuw.ecs.moveme;
+
+import java.io.IOException;
+import java.net.DatagramPacket;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.MulticastSocket;
+import java.net.SocketException;
+import java.nio.ByteBuffer;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Receives controller states sent by a {@link StateRelay}. The states are offered through the same kind of publisher as
+ * {@link PSMoveClient#getStatePublisher()}, so code written against a client can also run on a machine that only sees the relay.
+ */
+public class StateRelayClient implements Runnable {
+
+	private final MulticastSocket socket;
+	private final InetSocketAddress group;
+	private final ConflatingPublisher<ControllerState> statePublisher;
+	private final ExecutorService defaultExecutor;
+	private final ControllerState[] states;
+	private final int[] session;
+	private final int[] sequence;
+	private final AtomicLong receivedCount;
+	private final AtomicLong gapCount;
+	private volatile boolean running;
+
+	/**
+	 * Listen for unicast states on a port
+	 *
+	 * @param port
+	 *            Port to listen on, or 0 to pick a free one
+	 * @throws IOException
+	 */
+	public StateRelayClient(int port) throws IOException {
+		this(null, port, null);
+	}
+
+	/**
+	 * Listen for states on a port, joining a multicast group
+	 *
+	 * @param group
+	 *            Multicast group to join, or null to listen for unicast only
+	 * @param port
+	 *            Port to listen on, or 0 to pick a free one
+	 * @param executor
+	 *            Executor to deliver states to subscribers on, or null to use a single daemon thread
+	 * @throws IOException
+	 */
+	public StateRelayClient(InetAddress group, int port, Executor executor) throws IOException {
+		this.socket = new MulticastSocket(port);
+		this.group = group == null ? null : new InetSocketAddress(group, 0);
+		if (group != null) {
+			socket.joinGroup(this.group, null);
+		}
+		if (executor == null) {
+			defaultExecutor = Executors.newSingleThreadExecutor(new ThreadFactory() {
+				public Thread newThread(Runnable r) {
+					Thread t = new Thread(r, "Move.Me relay publisher");
+					t.setDaemon(true);
+					return t;
+				}
+			});
+			executor = defaultExecutor;
+		} else {
+			defaultExecutor = null;
+		}
+		this.statePublisher = new ConflatingPublisher<ControllerState>(PSMoveClient.PSMoveServerMaxCons, executor);
+		this.states = new ControllerState[PSMoveClient.PSMoveServerMaxCons];
+		this.session = new int[PSMoveClient.PSMoveServerMaxCons];
+		this.sequence = new int[PSMoveClient.PSMoveServerMaxCons];
+		this.receivedCount = new AtomicLong();
+		this.gapCount = new AtomicLong();
+		this.running = false;
+	}
+
+	/**
+	 * @return The local port states are received on
+	 */
+	public int getPort() {
+		return socket.getLocalPort();
+	}
+
+	/**
+	 * Get a stream of the received controller states. Each subscriber keeps at most one undelivered state per controller.
+	 *
+	 * @return The controller state publisher
+	 */
+	public MovePublisher<ControllerState> getStatePublisher() {
+		return statePublisher;
+	}
+
+	/**
+	 * @return The number of datagrams received so far
+	 */
+	public long getReceivedCount() {
+		return receivedCount.get();
+	}
+
+	/**
+	 * @return The number of times a datagram was found to be missing from the sequence of a controller
+	 */
+	public long getGapCount() {
+		return gapCount.get();
+	}
+
+	/**
+	 * Start receiving on a new thread
+	 */
+	public void start() {
+		running = true;
+		new Thread(this, "Move.Me relay client").start();
+	}
+
+	/**
+	 * Stop receiving and close the socket
+	 */
+	public void close() {
+		running = false;
+		if (group != null) {
+			try {
+				socket.leaveGroup(group, null);
+			} catch (IOException e) {
+				// Closing anyway
+			}
+		}
+		socket.close();
+		statePublisher.close();
+		if (defaultExecutor != null) {
+			defaultExecutor.shutdown();
+		}
+	}
+
+	public void run() {
+		byte[] data = new byte[RelayProtocol.MaxDatagramSize];
+		DatagramPacket p = new DatagramPacket(data, data.length);
+		while (running) {
+			try {
+				p.setLength(data.length);
+				socket.receive(p);
+				read(ByteBuffer.wrap(data, 0, p.getLength()));
+			} catch (SocketException e) {
+				// The socket was closed
+				return;
+			} catch (IOException e) {
+				e.printStackTrace();
+			} catch (RuntimeException e) {
+				// A truncated or corrupt datagram
+				e.printStackTrace();
+			}
+		}
+	}
+
+	private void read(ByteBuffer b) {
+		if (b.getInt() != RelayProtocol.Magic || b.get() != RelayProtocol.Version) {
+			return;
+		}
+		b.get(); // flags
+		int controller = b.getShort();
+		int relaySession = b.getInt();
+		int seq = b.getInt();
+		int packetIndex = b.getInt();
+		int fields = b.getShort() & 0xffff;
+		if (controller < 0 || controller >= states.length) {
+			return;
+		}
+		receivedCount.incrementAndGet();
+
+		boolean keyframe = fields == RelayProtocol.AllFields;
+		if (relaySession != session[controller]) {
+			// The relay restarted, so its sequence numbers start again and the old state cannot be patched
+			session[controller] = relaySession;
+			sequence[controller] = seq - 1;
+			states[controller] = null;
+		}
+		if (states[controller] != null && seq - sequence[controller] > 1) {
+			gapCount.incrementAndGet();
+			// Fields from the lost datagram are unknown, so wait for the next keyframe
+			states[controller] = null;
+		}
+		if (seq - sequence[controller] <= 0 && states[controller] != null) {
+			// Old or duplicate datagram
+			return;
+		}
+		sequence[controller] = seq;
+		if (states[controller] == null && !keyframe) {
+			return;
+		}
+		states[controller] = RelayProtocol.decode(b, controller, packetIndex, fields, states[controller]);
+		statePublisher.submit(controller, states[controller]);
+	}
+}
@@ -0,0 +1,93 @@
+/*
+ * Java Move.Me bindings.
+ *
+ * Copyright (C) 2013  Roman Klapaukh
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+
+package nz.ac.vuw.ecs.moveme;
+
+/**
+ * Sent when the {@link TrackingStatus} of a controller changes, once the change has passed the hysteresis and debouncing of the
+ * {@link TrackingMonitor}
+ */
+public class TrackingEvent {
+
+	private final int controller;
+	private final TrackingStatus previous;
+	private final TrackingStatus status;
+	private final int code;
+	private final long flags;
+	private final long nanoTime;
+
+	TrackingEvent(int controller, TrackingStatus previous, TrackingStatus status, int code, long flags, long nanoTime) {
+		this.controller = controller;
+		this.previous = previous;
+		this.status = status;
+		this.code = code;
+		this.flags = flags;
+		this.nanoTime = nanoTime;
+	}
+
+	/**
+	 * @return The index of the controller (0-3)
+	 */
+	public int getController() {
+		return controller;
+	}
+
+	/**
+	 * @return The status before this change, or null if this is the first status reported
+	 */
+	public TrackingStatus getPrevious() {
+		return previous;
+	}
+
+	/**
+	 * @return The new status
+	 */
+	public TrackingStatus getStatus() {
+		return status;
+	}
+
+	/**
+	 * @return True if the controller is not being tracked
+	 */
+	public boolean isLost() {
+		return status != TrackingStatus.TRACKING;
+	}
+
+	/**
+	 * @return The status code from the packet that caused the change
+	 */
+	public int getCode() {
+		return code;
+	}
+
+	/**
+	 * @return The status flags from the packet that caused the change
+	 */
+	public long getFlags() {
+		return flags;
+	}
+
+	/**
+	 * @return The System.nanoTime at which the change was reported
+	 */
+	public long getNanoTime() {
+		return nanoTime;
+	}
+}
@@ -0,0 +1,160 @@
+/*
+ * Java Move.Me bindings.
+ *
+ * Copyright (C) 2013  Roman Klapaukh
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+
+package nz.ac.vuw.ecs.moveme;
+
+/**
+ * Keeps track of the {@link TrackingStatus} of each controller and decides when a change is real. A new status is only reported once it has been
+ * seen in a number of consecutive packets and for a minimum amount of time, and changes for a controller are never reported more often than a
+ * minimum interval. A single dropped frame therefore no longer causes a lost and regained pair of events.
+ *
+ * All updates must come from a single thread (the receive thread). The settings may be changed from any thread.
+ */
+public class TrackingMonitor {
+
+	private final int controllers;
+	private final TrackingStatus[] status;
+	private final TrackingStatus[] candidate;
+	private final int[] candidateFrames;
+	private final long[] candidateSince;
+	private final long[] lastEvent;
+	private volatile int hysteresisFrames;
+	private volatile long debounceNanos;
+	private volatile long minIntervalNanos;
+
+	/**
+	 * Create a monitor with the default settings of 3 frames, 30ms debounce and at most one event every 100ms per controller
+	 *
+	 * @param controllers
+	 *            Number of controllers to keep track of
+	 */
+	public TrackingMonitor(int controllers) {
+		this.controllers = controllers;
+		this.status = new TrackingStatus[controllers];
+		this.candidate = new TrackingStatus[controllers];
+		this.candidateFrames = new int[controllers];
+		this.candidateSince = new long[controllers];
+		this.lastEvent = new long[controllers];
+		this.hysteresisFrames = 3;
+		this.debounceNanos = 30 * 1000000L;
+		this.minIntervalNanos = 100 * 1000000L;
+	}
+
+	/**
+	 * Set how many consecutive packets a new status has to be seen in before it is reported
+	 *
+	 * @param frames
+	 *            Number of packets. 1 reports changes straight away
+	 */
+	public void setHysteresisFrames(int frames) {
+		if (frames < 1) {
+			throw new IllegalArgumentException("Hysteresis must be at least one frame");
+		}
+		this.hysteresisFrames = frames;
+	}
+
+	/**
+	 * Set how long a new status has to be seen for before it is reported
+	 *
+	 * @param millis
+	 *            Time in milliseconds
+	 */
+	public void setDebounceMillis(long millis) {
+		this.debounceNanos = millis * 1000000L;
+	}
+
+	/**
+	 * Set the minimum time between two events for the same controller. A change that happens sooner is held back and reported once the interval has
+	 * passed, if it still holds.
+	 *
+	 * @param millis
+	 *            Time in milliseconds
+	 */
+	public void setMinEventIntervalMillis(long millis) {
+		this.minIntervalNanos = millis * 1000000L;
+	}
+
+	/**
+	 * Get the last reported status of a controller
+	 *
+	 * @param controller
+	 *            Index of the controller
+	 * @return The status, or null if no status has been reported yet
+	 */
+	public TrackingStatus getStatus(int controller) {
+		return status[controller];
+	}
+
+	/**
+	 * Forget all reported statuses, e.g. after reconnecting
+	 */
+	void reset() {
+		for (int i = 0; i < controllers; i++) {
+			status[i] = null;
+			candidate[i] = null;
+			candidateFrames[i] = 0;
+		}
+	}
+
+	/**
+	 * Feed the state of a controller from one packet
+	 *
+	 * @param controller
+	 *            Index of the controller
+	 * @param connected
+	 *            Whether the controller is connected
+	 * @param code
+	 *            The status code
+	 * @param flags
+	 *            The status flags
+	 * @param sphereVisible
+	 *            Whether the sphere is visible
+	 * @param now
+	 *            The System.nanoTime the packet was received at
+	 * @return An event if the reported status changed, otherwise null
+	 */
+	TrackingEvent update(int controller, boolean connected, int code, long flags, boolean sphereVisible, long now) {
+		TrackingStatus raw = TrackingStatus.of(connected, code, flags, sphereVisible);
+		TrackingStatus current = status[controller];
+		if (raw == current) {
+			candidate[controller] = null;
+			candidateFrames[controller] = 0;
+			return null;
+		}
+		if (raw != candidate[controller]) {
+			candidate[controller] = raw;
+			candidateFrames[controller] = 1;
+			candidateSince[controller] = now;
+		} else if (candidateFrames[controller] < Integer.MAX_VALUE) {
+			candidateFrames[controller]++;
+		}
+		if (candidateFrames[controller] < hysteresisFrames || now - candidateSince[controller] < debounceNanos) {
+			return null;
+		}
+		if (current != null && now - lastEvent[controller] < minIntervalNanos) {
+			return null;
+		}
+		status[controller] = raw;
+		candidate[controller] = null;
+		candidateFrames[controller] = 0;
+		lastEvent[controller] = now;
+		return new TrackingEvent(controller, current, raw, code, flags, now);
+	}
+}
@@ -0,0 +1,101 @@
+/*
+ * Java Move.Me bindings.
+ *
+ * Copyright (C) 2013  Roman Klapaukh
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+
+package nz.ac.vuw.ecs.moveme;
+
+/**
+ * The tracking state of a single controller, derived from the status code, the status flags and whether the camera can see the sphere
+ */
+public enum TrackingStatus {
+
+	/**
+	 * The controller is being tracked and the camera can see the sphere
+	 */
+	TRACKING,
+
+	/**
+	 * The controller is calibrated, but the camera cannot see the sphere
+	 */
+	SPHERE_LOST,
+
+	/**
+	 * The controller is not connected to the PlayStation
+	 */
+	NOT_CONNECTED,
+
+	/**
+	 * The controller has not been calibrated yet
+	 */
+	NOT_CALIBRATED,
+
+	/**
+	 * The last calibration attempt failed. The status flags say why
+	 */
+	CALIBRATION_FAILED,
+
+	/**
+	 * The controller is being calibrated
+	 */
+	CALIBRATING,
+
+	/**
+	 * The server is working out which colours can be tracked
+	 */
+	COMPUTING_COLORS,
+
+	/**
+	 * No tracking hue has been set for the controller
+	 */
+	HUE_NOT_SET;
+
+	/**
+	 * Work out the status of a controller from the fields of a standard state packet
+	 *
+	 * @param connected
+	 *            Whether the controller is connected
+	 * @param code
+	 *            The status code
+	 * @param flags
+	 *            The status flags
+	 * @param sphereVisible
+	 *            Whether the sphere is visible
+	 * @return The matching status
+	 */
+	public static TrackingStatus of(boolean connected, int code, long flags, boolean sphereVisible) {
+		if (!connected || code == PSMoveClient.CodeNotConnected) {
+			return NOT_CONNECTED;
+		}
+		switch (code) {
+		case PSMoveClient.CodeTracking:
+			return sphereVisible ? TRACKING : SPHERE_LOST;
+		case PSMoveClient.CodeCalibrating:
+			return CALIBRATING;
+		case PSMoveClient.CodeComputingAvailableColors:
+			return COMPUTING_COLORS;
+		case PSMoveClient.CodeHueNotSet:
+			return HUE_NOT_SET;
+		default:
+			if ((flags & PSMoveClient.FlagCalibrationOccured) != 0 && (flags & PSMoveClient.FlagCalibrationSuceeded) == 0) {
+				return CALIBRATION_FAILED;
+			}
+			return NOT_CALIBRATED;
+		}
+	}
+}